@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.kpouer.roadworkserver.config.CachingPasswordEncoder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the password verification done on every Basic authenticated request.
+ * It runs on a single thread so the throughput is the number of requests per second per core.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AuthenticationBenchmark {
+    private static final String PASSWORD = "password";
+
+    private BCryptPasswordEncoder bcrypt;
+    private CachingPasswordEncoder caching;
+    private String encodedPassword;
+
+    @Setup
+    public void setUp() {
+        bcrypt = new BCryptPasswordEncoder();
+        caching = new CachingPasswordEncoder(bcrypt, Duration.ofHours(1));
+        encodedPassword = bcrypt.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean bcrypt() {
+        return bcrypt.matches(PASSWORD, encodedPassword);
+    }
+
+    @Benchmark
+    public boolean cachedCredentials() {
+        return caching.matches(PASSWORD, encodedPassword);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.model.CompactDataset;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the boxed map of {@link SyncData} with {@link CompactDataset}.
+ * The benchmarks measure the cost of reading the entries, the memory footprint is printed by the main method :
+ * <code>java -cp target/benchmarks.jar com.kpouer.roadworkserver.benchmark.CompactDatasetBenchmark</code>
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompactDatasetBenchmark {
+    @Param({"BOXED", "COMPACT"})
+    public String representation;
+    @Param({"10000", "100000"})
+    public int size;
+
+    private Map<String, SyncData> data;
+    private String[] ids;
+
+    @Setup
+    public void setUp() {
+        var boxed = SyncDataGenerator.serverDataset(size);
+        ids = boxed.keySet().toArray(String[]::new);
+        data = "COMPACT".equals(representation) ? CompactDataset.of(boxed) : boxed;
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        for (var id : ids) {
+            blackhole.consume(data.get(id));
+        }
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        data.forEach((id, syncData) -> blackhole.consume(syncData));
+    }
+
+    public static void main(String[] args) {
+        for (var size : new int[]{1_000, 10_000, 100_000}) {
+            var boxed = SyncDataGenerator.serverDataset(size);
+            var compact = CompactDataset.of(boxed);
+            var boxedSize = GraphLayout.parseInstance(boxed).totalSize();
+            // the ids are shared with the boxed map, they are counted in both
+            var compactSize = GraphLayout.parseInstance(compact).totalSize();
+            System.out.printf("%,d entries: boxed %,d bytes (%d per entry), compact %,d bytes (%d per entry)%n",
+                    size, boxedSize, boxedSize / size, compactSize, compactSize / size);
+        }
+    }
+}
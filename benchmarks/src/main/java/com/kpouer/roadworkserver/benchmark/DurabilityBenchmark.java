@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.storage.JsonFileStorage;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of concurrent saves of different datasets with each durability mode of the json storage.
+ * The numbers depend a lot on the disk, run it on the production hardware.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(16)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DurabilityBenchmark {
+    @Param({"NONE", "FSYNC", "GROUP"})
+    public Config.Durability durability;
+    @Param({"1000"})
+    public int size;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private Path dataPath;
+    private JsonFileStorage storage;
+    private Map<String, SyncData> data;
+
+    @State(Scope.Thread)
+    public static class Dataset {
+        private DatasetKey key;
+
+        @Setup
+        public void setUp(DurabilityBenchmark benchmark) {
+            key = new DatasetKey("team", "service" + benchmark.threads.incrementAndGet());
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dataPath = Files.createTempDirectory("roadwork-benchmark");
+        storage = new JsonFileStorage(dataPath.toString(), new ObjectMapper(), durability, Duration.ofMillis(2));
+        data = SyncDataGenerator.serverDataset(size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        FileSystemUtils.deleteRecursively(dataPath);
+    }
+
+    @Benchmark
+    public long save(Dataset dataset) throws IOException {
+        return storage.save(dataset.key, data);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadwork.model.sync.SyncData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the json serialization of the datasets.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JsonBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ObjectReader reader;
+    private ObjectWriter writer;
+    private Map<String, SyncData> data;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        var objectMapper = new ObjectMapper();
+        var mapType = objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class);
+        reader = objectMapper.readerFor(mapType);
+        writer = objectMapper.writerFor(mapType);
+        data = SyncDataGenerator.serverDataset(size);
+        json = writer.writeValueAsBytes(data);
+    }
+
+    @Benchmark
+    public Map<String, SyncData> read() throws IOException {
+        return reader.readValue(json);
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return writer.writeValueAsBytes(data);
+    }
+}
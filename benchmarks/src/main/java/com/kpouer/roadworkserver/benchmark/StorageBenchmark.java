@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.storage.DatasetStorage;
+import com.kpouer.roadworkserver.storage.JournalStorage;
+import com.kpouer.roadworkserver.storage.JsonFileStorage;
+import com.kpouer.roadworkserver.storage.MVStoreStorage;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of a sync modifying a few entries of a dataset with each storage mode.
+ * The <code>bytesWritten</code> secondary result divided by the score gives the bytes written per sync
+ * (journal compactions are not counted).
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StorageBenchmark {
+    private static final DatasetKey KEY = new DatasetKey("team", "service");
+
+    @Param({"JSON", "JOURNAL", "MVSTORE"})
+    public Config.StorageMode mode;
+    @Param({"1000", "10000"})
+    public int size;
+    @Param({"2", "50"})
+    public int changedEntries;
+
+    private Path dataPath;
+    private DatasetStorage storage;
+    private Map<String, SyncData> data;
+    private String[] ids;
+    private int next;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long bytesWritten;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dataPath = Files.createTempDirectory("roadwork-benchmark");
+        var objectMapper = new ObjectMapper();
+        storage = switch (mode) {
+            case JSON -> new JsonFileStorage(dataPath.toString(), objectMapper);
+            case JOURNAL -> new JournalStorage(dataPath.toString(), DataSize.ofMegabytes(1).toBytes(), objectMapper);
+            case MVSTORE -> new MVStoreStorage(dataPath.toString(), objectMapper);
+        };
+        data = SyncDataGenerator.serverDataset(size);
+        ids = data.keySet().toArray(String[]::new);
+        storage.save(KEY, data);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        FileSystemUtils.deleteRecursively(dataPath);
+    }
+
+    @Benchmark
+    public void sync(Counters counters) throws IOException {
+        var newData = new HashMap<>(data);
+        var changedIds = new HashSet<String>();
+        for (int i = 0; i < changedEntries; i++) {
+            var id = ids[next++ % ids.length];
+            var syncData = SyncDataGenerator.copy(newData.get(id));
+            syncData.setServerUpdateTime(syncData.getServerUpdateTime() + 1);
+            newData.put(id, syncData);
+            changedIds.add(id);
+        }
+        // the changed ids are given by the merge like in the server
+        counters.bytesWritten += storage.save(KEY, newData, changedIds);
+        data = newData;
+    }
+}
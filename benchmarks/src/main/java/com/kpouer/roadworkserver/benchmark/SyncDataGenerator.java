@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadwork.model.sync.SyncData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic datasets.
+ *
+ * @author Matthieu Casanova
+ */
+public final class SyncDataGenerator {
+    private static final String[] STATUSES = {"New", "Later", "Ignored", "Finished", "Treated"};
+    private static final long BASE_TIME = 1_653_331_693_000L;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private SyncDataGenerator() {
+    }
+
+    /**
+     * Returns a dataset as stored by the server.
+     *
+     * @param size the number of entries
+     * @return the dataset
+     */
+    public static Map<String, SyncData> serverDataset(int size) {
+        var data = new HashMap<String, SyncData>();
+        for (int i = 0; i < size; i++) {
+            var time = BASE_TIME + i;
+            data.put(id(i), syncData(time, time, STATUSES[i % STATUSES.length], false));
+        }
+        return data;
+    }
+
+    /**
+     * Returns the dataset sent by a client for the same entries as {@link #serverDataset(int)}.
+     * Half of the dirty entries are conflicts : they were also modified on the server since the client last sync.
+     *
+     * @param size       the number of entries
+     * @param dirtyRatio the ratio of entries modified by the client
+     * @param seed       the random seed
+     * @return the dataset
+     */
+    public static Map<String, SyncData> clientDataset(int size, double dirtyRatio, long seed) {
+        var random = new Random(seed);
+        var data = new HashMap<String, SyncData>();
+        for (int i = 0; i < size; i++) {
+            var time = BASE_TIME + i;
+            if (random.nextDouble() < dirtyRatio) {
+                var serverUpdateTime = random.nextBoolean() ? time : time - 1;
+                data.put(id(i), syncData(time + 10, serverUpdateTime, STATUSES[random.nextInt(STATUSES.length)], true));
+            } else {
+                data.put(id(i), syncData(time, time, STATUSES[i % STATUSES.length], false));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Returns a deep copy of a dataset since the merge modifies the entries sent by the client.
+     */
+    public static Map<String, SyncData> copy(Map<String, SyncData> data) {
+        var copy = new HashMap<String, SyncData>(data.size() * 2);
+        data.forEach((id, syncData) -> copy.put(id, copy(syncData)));
+        return copy;
+    }
+
+    public static SyncData copy(SyncData syncData) {
+        var copy = new SyncData();
+        copy.setLocalUpdateTime(syncData.getLocalUpdateTime());
+        copy.setServerUpdateTime(syncData.getServerUpdateTime());
+        copy.setStatus(syncData.getStatus());
+        copy.setDirty(syncData.isDirty());
+        return copy;
+    }
+
+    private static String id(int i) {
+        return "roadwork-" + i;
+    }
+
+    private static SyncData syncData(long localUpdateTime, long serverUpdateTime, String status, boolean dirty) {
+        var values = Map.of(
+                "localUpdateTime", localUpdateTime,
+                "serverUpdateTime", serverUpdateTime,
+                "status", status,
+                "dirty", dirty);
+        return OBJECT_MAPPER.convertValue(values, SyncData.class);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.audit.AuditLog;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DeltaRequest;
+import com.kpouer.roadworkserver.service.ChangeNotifier;
+import com.kpouer.roadworkserver.service.DataService;
+import com.kpouer.roadworkserver.service.SyncMetrics;
+import com.kpouer.roadworkserver.storage.JsonFileStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of /sync requests of many clients on the same dataset, for a growing number of threads.
+ * Each client modifies its own entries and a shared one, like DataServiceConcurrencyTest which checks that no update
+ * is lost. The <code>syncs</code> secondary result is the number of syncs per second, compare it between thread counts
+ * to see how the dataset lock scales.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SyncThroughputBenchmark {
+    private static final String TEAM = "team";
+    private static final String SERVICE = "service";
+    private static final String SHARED_ID = "shared";
+    private static final int SYNCS_PER_CLIENT = 20;
+    private static final int ENTRIES_PER_CLIENT = 100;
+
+    @Param({"1", "2", "4", "16", "64", "256"})
+    public int threads;
+    @Param({"1000"})
+    public int size;
+
+    private Path dataPath;
+    private DataService dataService;
+    private ExecutorService executor;
+    private int round;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long syncs;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dataPath = Files.createTempDirectory("roadwork-benchmark");
+        var config = new Config();
+        config.setDataPath(dataPath.toString());
+        config.getAudit().setEnabled(false);
+        var storage = new JsonFileStorage(config.getDataPath(), new ObjectMapper());
+        dataService = new DataService(config, storage, new SyncMetrics(new SimpleMeterRegistry()), new ChangeNotifier(config), new AuditLog(config));
+        dataService.setData(TEAM, SERVICE, SyncDataGenerator.serverDataset(size));
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.close();
+        dataService.close();
+        FileSystemUtils.deleteRecursively(dataPath);
+    }
+
+    /**
+     * Every thread syncs a few times as its own client, sending the watermark of its previous sync.
+     */
+    @Benchmark
+    public void sync(Counters counters) throws InterruptedException, ExecutionException {
+        var tasks = new ArrayList<Callable<Void>>(threads);
+        var currentRound = round++;
+        for (int thread = 0; thread < threads; thread++) {
+            var clientId = thread;
+            tasks.add(() -> {
+                var since = 0L;
+                for (int i = 0; i < SYNCS_PER_CLIENT; i++) {
+                    var id = "client-" + clientId + '-' + (currentRound * SYNCS_PER_CLIENT + i) % ENTRIES_PER_CLIENT;
+                    var request = new DeltaRequest();
+                    request.setSince(since);
+                    request.setChanges(new HashMap<>(Map.of(
+                            id, syncData(Status.New),
+                            SHARED_ID, syncData(Status.values()[i % Status.values().length]))));
+                    since = dataService.sync(TEAM, SERVICE, request).getWatermark();
+                }
+                return null;
+            });
+        }
+        for (var future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        counters.syncs += (long) threads * SYNCS_PER_CLIENT;
+    }
+
+    private static SyncData syncData(Status status) {
+        var syncData = new SyncData();
+        syncData.setStatus(status);
+        syncData.setLocalUpdateTime(System.currentTimeMillis());
+        syncData.setDirty(true);
+        return syncData;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.config.UserConfig;
+import com.kpouer.roadworkserver.model.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the user and team lookups done on every sync.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserBenchmark {
+    @Param({"100", "1000"})
+    public int users;
+    @Param({"1", "10"})
+    public int teamsPerUser;
+
+    private Path dataPath;
+    private UserConfig userConfig;
+    private User user;
+    private String lastTeam;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataPath = Files.createTempDirectory("roadwork-benchmark");
+        var userList = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < users; i++) {
+            var teams = new ArrayList<String>();
+            for (int j = 0; j < teamsPerUser; j++) {
+                teams.add("team-" + ((i + j) % 100));
+            }
+            userList.add(Map.of("username", "user-" + i, "password", "", "teams", teams));
+        }
+        new ObjectMapper().writeValue(dataPath.resolve("users.json").toFile(), userList);
+        var config = new Config();
+        config.setDataPath(dataPath.toString());
+        userConfig = new UserConfig(config, event -> {
+        });
+        userConfig.loadUsers();
+        user = userConfig.getUser("user-0");
+        lastTeam = user.getTeams()[teamsPerUser - 1];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(dataPath);
+    }
+
+    @Benchmark
+    public boolean hasTeam() {
+        return user.hasTeam(lastTeam);
+    }
+
+    @Benchmark
+    public boolean hasTeamMissing() {
+        return user.hasTeam("unknown");
+    }
+
+    @Benchmark
+    public User getUser() {
+        return userConfig.getUser("user-0");
+    }
+
+    @Benchmark
+    public Collection<String> getTeams() {
+        return userConfig.getTeams();
+    }
+}
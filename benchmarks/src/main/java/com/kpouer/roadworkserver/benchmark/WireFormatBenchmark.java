@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse and serialization time of a client dataset in each wire format.
+ * The <code>payloadBytes</code> secondary result divided by the score gives the payload size.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WireFormatBenchmark {
+    @Param({"JSON", "SMILE", "CBOR"})
+    public Config.StorageFormat format;
+    @Param({"1000", "10000"})
+    public int size;
+
+    private Map<String, SyncData> data;
+    private byte[] payload;
+    private ObjectReader reader;
+    private ObjectWriter writer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long payloadBytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        var objectMapper = switch (format) {
+            case JSON -> new ObjectMapper();
+            case SMILE -> new SmileMapper();
+            case CBOR -> new CBORMapper();
+        };
+        var mapType = objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class);
+        reader = objectMapper.readerFor(mapType);
+        writer = objectMapper.writerFor(mapType);
+        data = SyncDataGenerator.clientDataset(size, 0.1, 42);
+        payload = writer.writeValueAsBytes(data);
+    }
+
+    @Benchmark
+    public Map<String, SyncData> parse(Counters counters) throws IOException {
+        counters.payloadBytes += payload.length;
+        return reader.readValue(payload);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(data);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.benchmark.SyncDataGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link DataService#merge(Map, Map, long, MergeStats)}, sequential and with the fork/join merge.
+ * It lives in the service package to reach the package-private merge method.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MergeBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+    @Param({"0.01", "0.1", "0.5"})
+    public double dirtyRatio;
+
+    private Map<String, SyncData> existing;
+    private Map<String, SyncData> client;
+    private Map<String, SyncData> incoming;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        existing = SyncDataGenerator.serverDataset(size);
+        client = SyncDataGenerator.clientDataset(size, dirtyRatio, 42);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyClientDataset() {
+        incoming = SyncDataGenerator.copy(client);
+    }
+
+    @Benchmark
+    public Map<String, SyncData> merge() {
+        return DataService.merge(existing, incoming, System.currentTimeMillis(), new MergeStats());
+    }
+
+    @Benchmark
+    public Map<String, SyncData> parallelMerge() {
+        return DataService.merge(existing, incoming, System.currentTimeMillis(), new MergeStats(), 0);
+    }
+}
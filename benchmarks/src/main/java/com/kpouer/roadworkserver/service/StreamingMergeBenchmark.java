@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.benchmark.SyncDataGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocations of the materialized merge (the request body is parsed into a map, then merged) with the
+ * streaming merge, reading the body from a stream like the server does.
+ * <code>buffered</code> is the previous streaming path that read the whole body before parsing it.
+ * Run it with <code>-prof gc</code> and compare the <code>gc.alloc.rate.norm</code> values.
+ *
+ * @author Matthieu Casanova
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StreamingMergeBenchmark {
+    @Param({"10000", "100000"})
+    public int size;
+    @Param({"0.01", "0.1"})
+    public double dirtyRatio;
+
+    private Map<String, SyncData> existing;
+    private byte[] body;
+    private ObjectReader mapReader;
+    private ObjectReader syncDataReader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        var objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        mapReader = objectMapper.readerFor(objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class));
+        syncDataReader = objectMapper.readerFor(SyncData.class);
+        existing = SyncDataGenerator.serverDataset(size);
+        body = objectMapper.writeValueAsBytes(SyncDataGenerator.clientDataset(size, dirtyRatio, 42));
+    }
+
+    @Benchmark
+    public Map<String, SyncData> materialized() throws IOException {
+        Map<String, SyncData> incoming = mapReader.readValue(new ByteArrayInputStream(body));
+        return DataService.merge(existing, incoming, System.currentTimeMillis(), new MergeStats());
+    }
+
+    @Benchmark
+    public Map<String, SyncData> buffered() throws IOException {
+        var bytes = new ByteArrayInputStream(body).readAllBytes();
+        try (var parser = syncDataReader.createParser(bytes)) {
+            return DataService.merge(existing, parser, syncDataReader, System.currentTimeMillis(), new MergeStats());
+        }
+    }
+
+    @Benchmark
+    public Map<String, SyncData> streaming() throws IOException {
+        try (var parser = syncDataReader.createParser(new ByteArrayInputStream(body))) {
+            return DataService.merge(existing, parser, syncDataReader, System.currentTimeMillis(), new MergeStats());
+        }
+    }
+}
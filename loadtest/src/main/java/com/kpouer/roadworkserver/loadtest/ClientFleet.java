@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpClient;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the simulated clients, each one on its own virtual thread, and measures the server during the measurement
+ * period following the warmup.
+ *
+ * @author Matthieu Casanova
+ */
+public class ClientFleet {
+    private static final double MB = 1024 * 1024;
+
+    private final LoadTestOptions options;
+    private final ServerProcess server;
+    private final List<LoadTestUser> users;
+
+    public ClientFleet(LoadTestOptions options, ServerProcess server, List<LoadTestUser> users) {
+        this.options = options;
+        this.server = server;
+        this.users = users;
+    }
+
+    public LoadTestResult run() throws IOException, InterruptedException {
+        var stats = new FleetStats();
+        var httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(options.getTimeout())
+                .build();
+        var seeds = new Random(options.getSeed());
+        var start = System.nanoTime();
+        var measurementStart = start + options.getWarmup().toNanos();
+        var deadline = measurementStart + options.getDuration().toNanos();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < options.getClients(); i++) {
+                var user = users.get(i % users.size());
+                var service = "service-" + seeds.nextInt(options.getServices());
+                var uri = server.getBaseUri().resolve("/setData/" + user.team() + '/' + service);
+                executor.execute(new SimulatedClient(options, httpClient, uri, user.authorization(), seeds.nextLong(),
+                        stats, start, deadline));
+            }
+
+            sleepUntil(measurementStart);
+            var warmup = stats.snapshot();
+            System.out.printf("Warmup done, %d requests%n", warmup.requests());
+            var metricsBefore = server.scrapeMetrics();
+            var cpuBefore = server.cpuTime();
+            var allocatedBefore = clientAllocatedBytes();
+            var measurementNanos = System.nanoTime();
+
+            sleepUntil(deadline);
+            var measurement = stats.snapshot();
+            var seconds = (System.nanoTime() - measurementNanos) / 1e9;
+            var allocatedAfter = clientAllocatedBytes();
+            var cpuAfter = server.cpuTime();
+            var metricsAfter = server.scrapeMetrics();
+
+            var requests = measurement.requests();
+            var serverAllocated = metricsAfter.sum("jvm_gc_memory_allocated_bytes_total") - metricsBefore.sum("jvm_gc_memory_allocated_bytes_total");
+            var gcPause = metricsAfter.sum("jvm_gc_pause_seconds_sum") - metricsBefore.sum("jvm_gc_pause_seconds_sum");
+            return new LoadTestResult(options.getLabel(),
+                    Instant.now(),
+                    options,
+                    seconds,
+                    requests,
+                    measurement.succeeded() / seconds,
+                    requests == 0 ? 0 : (double) measurement.failed() / requests,
+                    requests == 0 ? 0 : (double) measurement.rejected() / requests,
+                    LoadTestResult.Latency.of(measurement.latency()),
+                    LoadTestResult.Latency.of(measurement.serviceTime()),
+                    measurement.sentBytes() / MB / seconds,
+                    measurement.receivedBytes() / MB / seconds,
+                    serverAllocated / MB / seconds,
+                    allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / MB / seconds,
+                    (cpuAfter.toNanos() - cpuBefore.toNanos()) / 1e9 / seconds,
+                    gcPause,
+                    mergedEntries(metricsBefore, metricsAfter));
+        }
+    }
+
+    /**
+     * Returns the number of entries merged by each conflict rule during the measurement.
+     */
+    private static Map<String, Long> mergedEntries(PrometheusMetrics before, PrometheusMetrics after) {
+        var entriesBefore = before.sumBy("roadwork_sync_entries_total", "branch");
+        var mergedEntries = new TreeMap<String, Long>();
+        after.sumBy("roadwork_sync_entries_total", "branch")
+                .forEach((branch, count) -> mergedEntries.put(branch, Math.round(count - entriesBefore.getOrDefault(branch, 0.0))));
+        return mergedEntries;
+    }
+
+    /**
+     * Returns the bytes allocated by the load generator itself, so it is possible to check that it is not the
+     * bottleneck, or -1 if the JVM doesn't measure it.
+     */
+    private static long clientAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean) {
+            return threadMXBean.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        var delay = nanoTime - System.nanoTime();
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measurements shared by all the clients, the latencies are recorded in microseconds.
+ *
+ * @author Matthieu Casanova
+ */
+public class FleetStats {
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * Time between the moment the request was scheduled and the response, a slow server delays the next requests of
+     * the client and this delay is counted (no coordinated omission).
+     */
+    private final Recorder latency = new Recorder(SIGNIFICANT_DIGITS);
+    /**
+     * Time between the moment the request was actually sent and the response.
+     */
+    private final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder succeeded = new LongAdder();
+    /**
+     * Requests refused by the rate limiter (429).
+     */
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+
+    /**
+     * @param status       the http status, or 0 if no response was received
+     * @param scheduled    the nano time the request was scheduled at
+     * @param sent         the nano time the request was sent at
+     * @param received     the nano time the response was received at
+     * @param requestSize  the size of the request body
+     * @param responseSize the size of the response body
+     */
+    public void record(int status, long scheduled, long sent, long received, int requestSize, int responseSize) {
+        latency.recordValue(TimeUnit.NANOSECONDS.toMicros(received - scheduled));
+        serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(received - sent));
+        if (status == 200) {
+            succeeded.increment();
+        } else if (status == 429) {
+            rejected.increment();
+        } else {
+            failed.increment();
+        }
+        sentBytes.add(requestSize);
+        receivedBytes.add(responseSize);
+    }
+
+    /**
+     * Returns the measurements since the previous snapshot and start a new interval.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(latency.getIntervalHistogram(),
+                serviceTime.getIntervalHistogram(),
+                succeeded.sumThenReset(),
+                rejected.sumThenReset(),
+                failed.sumThenReset(),
+                sentBytes.sumThenReset(),
+                receivedBytes.sumThenReset());
+    }
+
+    public record Snapshot(Histogram latency,
+                           Histogram serviceTime,
+                           long succeeded,
+                           long rejected,
+                           long failed,
+                           long sentBytes,
+                           long receivedBytes) {
+        public long requests() {
+            return succeeded + rejected + failed;
+        }
+    }
+}
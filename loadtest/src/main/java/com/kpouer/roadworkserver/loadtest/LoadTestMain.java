@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Path;
+
+/**
+ * Start the server with generated users and an empty data folder, run the client fleet against it and write the
+ * result to <code>loadtest-result.json</code> unless another file is given with <code>--result</code>.
+ *
+ * @author Matthieu Casanova
+ */
+public class LoadTestMain {
+    public static void main(String[] args) throws Exception {
+        var options = LoadTestOptions.parse(args);
+        var users = LoadTestUser.generate(options);
+        System.out.printf("Starting the server with %d users%n", users.size());
+        LoadTestResult result;
+        try (var server = ServerProcess.start(options, users)) {
+            System.out.printf("Running %d clients on %d teams of %d datasets, warmup %s, measurement %s%n",
+                    options.getClients(), options.getTeams(), options.getServices(), options.getWarmup(), options.getDuration());
+            result = new ClientFleet(options, server, users).run();
+        }
+
+        var objectMapper = JsonMapper.builder()
+                .findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .build();
+        objectMapper.writeValue(Path.of(options.getResult()).toFile(), result);
+
+        System.out.printf("Requests        %d in %.1f s%n", result.requests(), result.seconds());
+        System.out.printf("Throughput      %.1f syncs/s%n", result.throughput());
+        System.out.printf("Errors          %.3f %%, rejected %.3f %%%n", result.errorRate() * 100, result.rejectedRate() * 100);
+        System.out.printf("Latency         %s%n", result.latency());
+        System.out.printf("Service time    %s%n", result.serviceTime());
+        System.out.printf("Traffic         %.1f MB/s sent, %.1f MB/s received%n", result.requestMBPerSecond(), result.responseMBPerSecond());
+        System.out.printf("Server          %.1f MB/s allocated, %.2f cpus, %.2f s of gc pauses%n",
+                result.serverAllocationRate(), result.serverCpuUsage(), result.serverGcPauseSeconds());
+        System.out.printf("Load generator  %.1f MB/s allocated%n", result.clientAllocationRate());
+        System.out.printf("Merged entries  %s%n", result.mergedEntries());
+        System.out.printf("Result written to %s%n", options.getResult());
+
+        if (result.errorRate() > options.getMaxErrorRate()) {
+            System.err.printf("Error rate %.3f %% is above the maximum of %.3f %%%n", result.errorRate() * 100, options.getMaxErrorRate() * 100);
+            System.exit(1);
+        }
+    }
+}
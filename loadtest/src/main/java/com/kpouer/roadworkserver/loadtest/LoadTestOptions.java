@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import lombok.Getter;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load test options, given on the command line as <code>--name=value</code>.
+ * The options starting with <code>--roadwork.</code> or <code>--spring.</code> are given to the server.
+ *
+ * @author Matthieu Casanova
+ */
+@Getter
+public class LoadTestOptions {
+    /**
+     * Free text stored in the result, typically the commit being tested.
+     */
+    private String label = "";
+    /**
+     * Number of simulated clients, each one has its own copy of a dataset.
+     */
+    private int clients = 2000;
+    /**
+     * Number of users, the clients are spread over them like devices of the same person.
+     */
+    private int users = 500;
+    private int teams = 20;
+    /**
+     * Number of datasets per team.
+     */
+    private int services = 5;
+    /**
+     * Number of entries of each dataset.
+     */
+    private int entries = 1000;
+    /**
+     * Ratio of the entries modified by a client between two syncs.
+     */
+    private double dirtyRatio = 0.02;
+    /**
+     * Ratio of the modified entries sent with an outdated server time, as if another client changed them first.
+     */
+    private double conflictRate = 0.1;
+    /**
+     * Mean time between two syncs of a client, the syncs follow a Poisson process.
+     */
+    private Duration interval = Duration.ofSeconds(5);
+    private Duration warmup = Duration.ofSeconds(30);
+    private Duration duration = Duration.ofSeconds(60);
+    private Duration timeout = Duration.ofSeconds(30);
+    private long seed = 42;
+    /**
+     * The process exits with status 1 if the error rate is higher.
+     */
+    private double maxErrorRate = 0.01;
+    private String result = "loadtest-result.json";
+    private String serverJvmArgs = "-Xms1g -Xmx1g";
+    /**
+     * Keep the temporary data folder and the server logs.
+     */
+    private boolean keepData;
+    private final List<String> serverArgs = new ArrayList<>();
+
+    public static LoadTestOptions parse(String[] args) {
+        var options = new LoadTestOptions();
+        for (var arg : args) {
+            if (arg.startsWith("--roadwork.") || arg.startsWith("--spring.")) {
+                options.serverArgs.add(arg);
+                continue;
+            }
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid option " + arg);
+            }
+            var separator = arg.indexOf('=');
+            var name = separator == -1 ? arg.substring(2) : arg.substring(2, separator);
+            var value = separator == -1 ? "true" : arg.substring(separator + 1);
+            switch (name) {
+                case "label" -> options.label = value;
+                case "clients" -> options.clients = Integer.parseInt(value);
+                case "users" -> options.users = Integer.parseInt(value);
+                case "teams" -> options.teams = Integer.parseInt(value);
+                case "services" -> options.services = Integer.parseInt(value);
+                case "entries" -> options.entries = Integer.parseInt(value);
+                case "dirtyRatio" -> options.dirtyRatio = Double.parseDouble(value);
+                case "conflictRate" -> options.conflictRate = Double.parseDouble(value);
+                case "interval" -> options.interval = DurationStyle.detectAndParse(value);
+                case "warmup" -> options.warmup = DurationStyle.detectAndParse(value);
+                case "duration" -> options.duration = DurationStyle.detectAndParse(value);
+                case "timeout" -> options.timeout = DurationStyle.detectAndParse(value);
+                case "seed" -> options.seed = Long.parseLong(value);
+                case "maxErrorRate" -> options.maxErrorRate = Double.parseDouble(value);
+                case "result" -> options.result = value;
+                case "serverJvmArgs" -> options.serverJvmArgs = value;
+                case "keepData" -> options.keepData = Boolean.parseBoolean(value);
+                default -> throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (options.clients < 1 || options.users < 1 || options.teams < 1 || options.services < 1 || options.entries < 1) {
+            throw new IllegalArgumentException("clients, users, teams, services and entries must be positive");
+        }
+        return options;
+    }
+}
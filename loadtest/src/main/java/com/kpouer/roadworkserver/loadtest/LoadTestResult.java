@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Result of a load test, written in json so it can be compared between commits.
+ * Latencies are in milliseconds, rates are per second and allocations in MB.
+ *
+ * @author Matthieu Casanova
+ */
+public record LoadTestResult(String label,
+                             Instant timestamp,
+                             LoadTestOptions options,
+                             double seconds,
+                             long requests,
+                             double throughput,
+                             double errorRate,
+                             double rejectedRate,
+                             Latency latency,
+                             Latency serviceTime,
+                             double requestMBPerSecond,
+                             double responseMBPerSecond,
+                             double serverAllocationRate,
+                             double clientAllocationRate,
+                             double serverCpuUsage,
+                             double serverGcPauseSeconds,
+                             Map<String, Long> mergedEntries) {
+
+    public record Latency(double mean, double p50, double p90, double p99, double p999, double max) {
+        /**
+         * @param histogram a histogram of latencies in microseconds
+         */
+        public static Latency of(Histogram histogram) {
+            return new Latency(histogram.getMean() / 1000.0,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMaxValue() / 1000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p999 %.1f, max %.1f ms", mean, p50, p90, p99, p999, max);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A generated user, it belongs to a single team.
+ *
+ * @author Matthieu Casanova
+ */
+public record LoadTestUser(String username, String password, String team, boolean admin) {
+    public static List<LoadTestUser> generate(LoadTestOptions options) {
+        var users = new ArrayList<LoadTestUser>(options.getUsers());
+        for (int i = 0; i < options.getUsers(); i++) {
+            users.add(new LoadTestUser("user-" + i, "password-" + i, "team-" + i % options.getTeams(), false));
+        }
+        return users;
+    }
+
+    public static LoadTestUser administrator() {
+        return new LoadTestUser("loadtest-admin", "loadtest-admin", null, true);
+    }
+
+    /**
+     * Returns the value of the basic authentication header.
+     */
+    public String authorization() {
+        var credentials = username + ':' + password;
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Samples parsed from the prometheus endpoint of the server.
+ *
+ * @author Matthieu Casanova
+ */
+public class PrometheusMetrics {
+    private final List<Sample> samples;
+
+    private PrometheusMetrics(List<Sample> samples) {
+        this.samples = samples;
+    }
+
+    public static PrometheusMetrics parse(String text) {
+        var samples = new ArrayList<Sample>();
+        for (var line : text.split("\n")) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            var valueStart = line.lastIndexOf(' ');
+            var labelsStart = line.indexOf('{');
+            if (valueStart == -1) {
+                continue;
+            }
+            var nameEnd = labelsStart == -1 || labelsStart > valueStart ? valueStart : labelsStart;
+            var labels = nameEnd == labelsStart ? line.substring(labelsStart + 1, line.lastIndexOf('}', valueStart)) : "";
+            try {
+                samples.add(new Sample(line.substring(0, nameEnd), labels, Double.parseDouble(line.substring(valueStart + 1))));
+            } catch (NumberFormatException e) {
+                // +Inf buckets and the like are not needed
+            }
+        }
+        return new PrometheusMetrics(samples);
+    }
+
+    /**
+     * Returns the sum of a metric over all its labels.
+     */
+    public double sum(String name) {
+        var sum = 0.0;
+        for (var sample : samples) {
+            if (sample.name.equals(name)) {
+                sum += sample.value;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of a metric for each value of a label.
+     */
+    public Map<String, Double> sumBy(String name, String label) {
+        var sums = new TreeMap<String, Double>();
+        var prefix = label + "=\"";
+        for (var sample : samples) {
+            if (sample.name.equals(name)) {
+                var start = sample.labels.indexOf(prefix);
+                if (start != -1) {
+                    start += prefix.length();
+                    var value = sample.labels.substring(start, sample.labels.indexOf('"', start));
+                    sums.merge(value, sample.value, Double::sum);
+                }
+            }
+        }
+        return sums;
+    }
+
+    private record Sample(String name, String labels, double value) {
+    }
+}
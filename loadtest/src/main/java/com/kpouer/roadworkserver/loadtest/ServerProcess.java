@@ -0,0 +1,200 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadworkserver.RoadworkServerApplication;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server under test, started in its own JVM so its allocations and cpu are measured apart from the clients.
+ * It runs in a temporary folder holding its data folder, a generated users.json and its logs.
+ *
+ * @author Matthieu Casanova
+ */
+public class ServerProcess implements AutoCloseable {
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+    private static final String LOGBACK = """
+            <configuration>
+                <appender name="CONSOLE" class="ch.qos.logback.core.ConsoleAppender">
+                    <encoder>
+                        <pattern>%d %-5level [%thread] %logger{36} %X{team} %X{service} - %msg%n</pattern>
+                    </encoder>
+                </appender>
+                <root level="INFO">
+                    <appender-ref ref="CONSOLE"/>
+                </root>
+            </configuration>
+            """;
+
+    private final Path directory;
+    private final boolean keepData;
+    private final Process process;
+    private final URI baseUri;
+    private final String adminAuthorization;
+    private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private ServerProcess(Path directory, boolean keepData, Process process, int port, LoadTestUser admin) {
+        this.directory = directory;
+        this.keepData = keepData;
+        this.process = process;
+        baseUri = URI.create("http://127.0.0.1:" + port);
+        adminAuthorization = admin.authorization();
+    }
+
+    /**
+     * Start the server and wait until it is ready.
+     *
+     * @param options the load test options
+     * @param users   the users to write in users.json
+     * @return the server
+     */
+    public static ServerProcess start(LoadTestOptions options, List<LoadTestUser> users) throws IOException, InterruptedException {
+        var directory = Files.createTempDirectory("roadwork-loadtest");
+        var dataPath = directory.resolve("data");
+        Files.createDirectories(dataPath);
+        Files.createDirectories(directory.resolve("config"));
+        Files.writeString(directory.resolve("config/logback.xml"), LOGBACK);
+        // the server settings are given on the command line
+        Files.createFile(directory.resolve("config/application.properties"));
+        var admin = LoadTestUser.administrator();
+        writeUsers(dataPath.resolve("users.json"), users, admin);
+
+        var port = freePort();
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (!options.getServerJvmArgs().isBlank()) {
+            command.addAll(Arrays.asList(options.getServerJvmArgs().trim().split("\\s+")));
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RoadworkServerApplication.class.getName());
+        command.add("--server.port=" + port);
+        command.add("--roadwork.data-path=" + dataPath);
+        command.addAll(options.getServerArgs());
+        var process = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+        var server = new ServerProcess(directory, options.isKeepData(), process, port, admin);
+        try {
+            server.waitUntilReady();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    private static void writeUsers(Path path, List<LoadTestUser> users, LoadTestUser admin) throws IOException {
+        var passwordEncoder = new BCryptPasswordEncoder();
+        var allUsers = new ArrayList<>(users);
+        allUsers.add(admin);
+        // BCrypt is slow on purpose, hash the passwords in parallel
+        var jsonUsers = allUsers.parallelStream()
+                .map(user -> {
+                    var jsonUser = new LinkedHashMap<String, Object>();
+                    jsonUser.put("username", user.username());
+                    jsonUser.put("password", passwordEncoder.encode(user.password()));
+                    jsonUser.put("teams", user.team() == null ? List.of() : List.of(user.team()));
+                    jsonUser.put("admin", user.admin());
+                    return jsonUser;
+                })
+                .toList();
+        new ObjectMapper().writeValue(path.toFile(), jsonUsers);
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void waitUntilReady() throws IOException, InterruptedException {
+        var deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        var request = HttpRequest.newBuilder(baseUri.resolve("/actuator/health/readiness")).build();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("The server exited with status " + process.exitValue() + ", see " + directory.resolve("server.log"));
+            }
+            try {
+                if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IOException("The server is not ready after " + STARTUP_TIMEOUT);
+    }
+
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    /**
+     * Returns the cpu time used by the server process so far.
+     */
+    public Duration cpuTime() {
+        return process.info().totalCpuDuration().orElse(Duration.ZERO);
+    }
+
+    public PrometheusMetrics scrapeMetrics() throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(baseUri.resolve("/actuator/prometheus"))
+                .header("Authorization", adminAuthorization)
+                .build();
+        var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Unable to read the server metrics, status " + response.statusCode());
+        }
+        return PrometheusMetrics.parse(response.body());
+    }
+
+    /**
+     * Stop the server gracefully so the pending datasets are flushed, then delete its folder unless it is kept.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+        process.destroy();
+        if (!process.waitFor(1, TimeUnit.MINUTES)) {
+            System.err.println("The server did not stop in time, killing it");
+            process.destroyForcibly().waitFor();
+        }
+        if (keepData) {
+            System.out.println("Server data and logs kept in " + directory);
+        } else {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.loadtest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A client syncing its whole dataset with <code>POST /setData/{team}/{opendataService}</code>.
+ * Between two syncs it modifies some entries, some of them with an outdated server time to create conflicts, and
+ * it keeps the server times and statuses of the merged dataset it receives like the real client.
+ *
+ * @author Matthieu Casanova
+ */
+public class SimulatedClient implements Runnable {
+    private static final String[] STATUSES = {"New", "Later", "Ignored", "Finished", "Treated"};
+    private static final String ID_PREFIX = "roadwork-";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final LoadTestOptions options;
+    private final HttpClient httpClient;
+    private final URI uri;
+    private final String authorization;
+    private final Random random;
+    private final FleetStats stats;
+    private final long start;
+    private final long deadline;
+    private final long[] serverUpdateTimes;
+    private final long[] localUpdateTimes;
+    private final byte[] statuses;
+    /**
+     * Entries modified since the last successful sync.
+     */
+    private final BitSet dirty;
+
+    /**
+     * @param options       the load test options
+     * @param httpClient    the http client
+     * @param uri           the setData uri of the dataset
+     * @param authorization the authorization header
+     * @param seed          the random seed of this client
+     * @param stats         the shared measurements
+     * @param start         the nano time of the beginning of the test
+     * @param deadline      the nano time after which no request is sent
+     */
+    public SimulatedClient(LoadTestOptions options, HttpClient httpClient, URI uri, String authorization, long seed,
+                           FleetStats stats, long start, long deadline) {
+        this.options = options;
+        this.httpClient = httpClient;
+        this.uri = uri;
+        this.authorization = authorization;
+        random = new Random(seed);
+        this.stats = stats;
+        this.start = start;
+        this.deadline = deadline;
+        serverUpdateTimes = new long[options.getEntries()];
+        localUpdateTimes = new long[options.getEntries()];
+        dirty = new BitSet(options.getEntries());
+        statuses = new byte[options.getEntries()];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = (byte) (i % STATUSES.length);
+        }
+    }
+
+    @Override
+    public void run() {
+        var scheduled = start + nextInterval();
+        while (scheduled < deadline) {
+            LockSupport.parkNanos(scheduled - System.nanoTime());
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            sync(scheduled);
+            scheduled += nextInterval();
+        }
+    }
+
+    private void sync(long scheduled) {
+        byte[] body;
+        try {
+            body = requestBody();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write the request", e);
+        }
+        var request = HttpRequest.newBuilder(uri)
+                .timeout(options.getTimeout())
+                .header("Authorization", authorization)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        var sent = System.nanoTime();
+        HttpResponse<byte[]> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            stats.record(0, scheduled, sent, System.nanoTime(), body.length, 0);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        var received = System.nanoTime();
+        var status = response.statusCode();
+        if (status == 200) {
+            try {
+                readResponse(response.body());
+                dirty.clear();
+            } catch (IOException e) {
+                // an unreadable dataset is a failure even if the status is fine
+                status = 0;
+            }
+        }
+        stats.record(status, scheduled, sent, received, body.length, response.body().length);
+    }
+
+    /**
+     * Returns the whole dataset of the client, with a few entries modified since the last sync.
+     * The entries modified before a failed sync are still dirty.
+     */
+    private byte[] requestBody() throws IOException {
+        var now = System.currentTimeMillis();
+        var out = new ByteArrayOutputStream(options.getEntries() * 100);
+        try (var generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            for (int i = 0; i < serverUpdateTimes.length; i++) {
+                if (!dirty.get(i) && random.nextDouble() < options.getDirtyRatio()) {
+                    dirty.set(i);
+                    statuses[i] = (byte) random.nextInt(STATUSES.length);
+                    localUpdateTimes[i] = now;
+                    if (serverUpdateTimes[i] > 0 && random.nextDouble() < options.getConflictRate()) {
+                        // as if another client changed the entry since our last sync
+                        serverUpdateTimes[i]--;
+                    }
+                }
+                var entryDirty = dirty.get(i);
+                generator.writeObjectFieldStart(ID_PREFIX + i);
+                generator.writeNumberField("localUpdateTime", entryDirty ? localUpdateTimes[i] : serverUpdateTimes[i]);
+                generator.writeNumberField("serverUpdateTime", serverUpdateTimes[i]);
+                generator.writeStringField("status", STATUSES[statuses[i]]);
+                generator.writeBooleanField("dirty", entryDirty);
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Keep the server times and statuses of the merged dataset.
+     */
+    private void readResponse(byte[] body) throws IOException {
+        try (var parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a json object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var index = index(parser.currentName());
+                parser.nextToken();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    var field = parser.currentName();
+                    parser.nextToken();
+                    if (index == -1) {
+                        parser.skipChildren();
+                    } else if ("serverUpdateTime".equals(field)) {
+                        serverUpdateTimes[index] = parser.getLongValue();
+                    } else if ("status".equals(field)) {
+                        var status = status(parser.getText());
+                        if (status != -1) {
+                            statuses[index] = (byte) status;
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+    }
+
+    private int index(String id) {
+        if (!id.startsWith(ID_PREFIX)) {
+            return -1;
+        }
+        try {
+            var index = Integer.parseInt(id, ID_PREFIX.length(), id.length(), 10);
+            return index < serverUpdateTimes.length ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int status(String status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i].equals(status)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns an exponentially distributed delay so the syncs of the fleet follow a Poisson process.
+     */
+    private long nextInterval() {
+        return (long) (-Math.log(1 - random.nextDouble()) * options.getInterval().toNanos());
+    }
+}
@@ -15,16 +15,30 @@
  */
 package com.kpouer.roadworkserver;
 
+import com.kpouer.roadworkserver.storage.StorageMigration;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.util.Arrays;
 
 /**
+ * With the <code>--migrate</code> argument the application runs {@link StorageMigration} without starting the web
+ * server, so no request is served before the migration is done, and exits.
+ *
  * @author Matthieu Casanova
  */
 @SpringBootApplication
 public class RoadworkServerApplication {
 
 	public static void main(String[] args) {
+		if (Arrays.asList(args).contains("--" + StorageMigration.MIGRATE_OPTION)) {
+			var context = new SpringApplicationBuilder(RoadworkServerApplication.class)
+					.web(WebApplicationType.NONE)
+					.run(args);
+			System.exit(SpringApplication.exit(context));
+		}
 		SpringApplication.run(RoadworkServerApplication.class, args);
 	}
 
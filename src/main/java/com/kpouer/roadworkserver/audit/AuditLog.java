@@ -0,0 +1,195 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.audit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.service.MergeBranch;
+import com.kpouer.roadworkserver.service.MergeListener;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous audit log of the merge decisions.
+ * The merging threads only add a record to a ring buffer, a background thread writes them as json lines to
+ * <code>dataPath/audit/audit-yyyy-MM-dd.ndjson</code>, a new file being started every day.
+ * In cluster mode each instance writes its own <code>audit-yyyy-MM-dd-{instance}.ndjson</code> file so the records of
+ * the instances are never interleaved.
+ * If the writer doesn't keep up the records are dropped and counted rather than slowing down the merges.
+ *
+ * @author Matthieu Casanova
+ */
+@Component
+@Slf4j
+public class AuditLog {
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Path auditPath;
+    private final String fileSuffix;
+    private final RingBuffer<AuditRecord> ringBuffer;
+    private final ObjectWriter writer = new ObjectMapper().writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private LocalDate currentDate;
+    private OutputStream outputStream;
+
+    public AuditLog(Config config) {
+        var audit = config.getAudit();
+        auditPath = Path.of(config.getDataPath(), "audit");
+        fileSuffix = config.getCluster().isEnabled() ? '-' + getInstanceId(config.getCluster()) + ".ndjson" : ".ndjson";
+        if (!audit.isEnabled()) {
+            ringBuffer = null;
+            thread = null;
+            return;
+        }
+        ringBuffer = new RingBuffer<>(audit.getBufferSize());
+        thread = new Thread(this::run, "audit-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns a listener auditing the merge of a dataset.
+     *
+     * @param key  the dataset key
+     * @param user the user who sent the data
+     * @return the listener or null if the audit is disabled
+     */
+    public MergeListener listener(DatasetKey key, String user) {
+        if (ringBuffer == null) {
+            return null;
+        }
+        var time = System.currentTimeMillis();
+        return (id, existingSyncData, mergedSyncData, branch) -> {
+            if (branch != MergeBranch.UNCHANGED) {
+                var from = existingSyncData == null ? null : existingSyncData.getStatus();
+                var record = new AuditRecord(time, key.team(), key.service(), user, id, branch, from, mergedSyncData.getStatus());
+                if (!ringBuffer.offer(record)) {
+                    dropped.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    private void run() {
+        while (true) {
+            var record = ringBuffer.poll();
+            if (record != null) {
+                write(record);
+                continue;
+            }
+            flush();
+            var droppedRecords = dropped.getAndSet(0);
+            if (droppedRecords > 0) {
+                logger.warn("{} audit records dropped, the buffer is full", droppedRecords);
+            }
+            if (!running) {
+                break;
+            }
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+        closeFile();
+    }
+
+    private void write(AuditRecord record) {
+        try {
+            var date = LocalDate.ofInstant(Instant.ofEpochMilli(record.time()), ZoneId.systemDefault());
+            if (!date.equals(currentDate)) {
+                closeFile();
+                Files.createDirectories(auditPath);
+                var path = auditPath.resolve("audit-" + date + fileSuffix);
+                outputStream = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+                currentDate = date;
+            }
+            writer.writeValue(outputStream, record);
+            outputStream.write('\n');
+        } catch (IOException e) {
+            logger.error("Unable to write audit record {}", record, e);
+        }
+    }
+
+    private static String getInstanceId(Config.Cluster cluster) {
+        if (!cluster.getInstanceId().isBlank()) {
+            return cluster.getInstanceId();
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + '-' + ProcessHandle.current().pid();
+    }
+
+    private void flush() {
+        if (outputStream != null) {
+            try {
+                outputStream.flush();
+            } catch (IOException e) {
+                logger.error("Unable to flush the audit log", e);
+            }
+        }
+    }
+
+    private void closeFile() {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                logger.error("Unable to close the audit log", e);
+            }
+            outputStream = null;
+            currentDate = null;
+        }
+    }
+
+    /**
+     * Write the pending records and close the file.
+     */
+    @PreDestroy
+    public void close() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
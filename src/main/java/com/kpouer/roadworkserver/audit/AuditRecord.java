@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.audit;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadworkserver.service.MergeBranch;
+
+/**
+ * A merge decision, written as one json line of the audit file.
+ *
+ * @param time    the merge time
+ * @param team    the team
+ * @param service the service
+ * @param user    the user who sent the entry
+ * @param id      the entry id
+ * @param branch  the applied conflict rule
+ * @param from    the server status before the merge, null for a new entry
+ * @param to      the status after the merge
+ * @author Matthieu Casanova
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record AuditRecord(long time, String team, String service, String user, String id, MergeBranch branch, Status from, Status to) {
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue with many producers and a single consumer.
+ * Each slot has a sequence telling whether it is free for the producer of a given position or filled for the
+ * consumer, so producers only contend on the tail.
+ *
+ * @author Matthieu Casanova
+ */
+class RingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Only accessed by the consumer.
+     */
+    private long head;
+
+    /**
+     * @param capacity the capacity, rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        var size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element if the buffer is not full.
+     *
+     * @return false if the buffer is full
+     */
+    boolean offer(T element) {
+        while (true) {
+            var position = tail.get();
+            var index = (int) position & mask;
+            var available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (available < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest element, must only be called by the consumer thread.
+     *
+     * @return the element or null if the buffer is empty
+     */
+    T poll() {
+        var index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        var element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return element;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.config;
+
+import com.kpouer.roadworkserver.model.DatasetKey;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit the rate of the sync requests per user and per team, and the number of requests queued on the same dataset.
+ * It runs after the authentication and before the body is read, a rejected request gets a 429 with a Retry-After
+ * header. A user that doesn't belong to the team of the request is not counted, it is rejected by the controller.
+ * The buckets that are full again and the datasets without requests are dropped so the maps don't grow.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+public class AdmissionControlFilter extends OncePerRequestFilter {
+    private static final String JSON_EXTENSION = ".json";
+    private static final long CLEANUP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private final Config.RateLimit rateLimit;
+    private final UserConfig userConfig;
+    private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> teamBuckets = new ConcurrentHashMap<>();
+    /**
+     * Number of requests merging or waiting for each dataset, a dataset is removed when it has no request.
+     */
+    private final Map<DatasetKey, Integer> datasetRequests = new ConcurrentHashMap<>();
+    private final AtomicLong nextCleanup = new AtomicLong(System.nanoTime() + CLEANUP_INTERVAL);
+
+    public AdmissionControlFilter(Config.RateLimit rateLimit, UserConfig userConfig) {
+        this.rateLimit = rateLimit;
+        this.userConfig = userConfig;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        var path = request.getServletPath();
+        return !path.startsWith("/setData/") && !path.startsWith("/sync/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        var authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            // rejected later by the authorization
+            filterChain.doFilter(request, response);
+            return;
+        }
+        // /setData/{team}, /setData/{team}/{service} or /sync/{team}/{service}
+        var segments = request.getServletPath().split("/");
+        var team = segments.length > 2 ? segments[2] : null;
+        var user = userConfig.getUser(authentication.getName());
+        if (team == null || user == null || !user.hasTeam(team)) {
+            // rejected by the controller, it must not consume the tokens of the team
+            filterChain.doFilter(request, response);
+            return;
+        }
+        var now = System.nanoTime();
+        cleanup(now);
+        var wait = acquire(userBuckets, authentication.getName(), rateLimit.getUserRate(), rateLimit.getUserBurst(), now);
+        if (wait == 0) {
+            wait = acquire(teamBuckets, team, rateLimit.getTeamRate(), rateLimit.getTeamBurst(), now);
+            if (wait > 0) {
+                // the request is not sent, the user keeps its token
+                release(userBuckets, authentication.getName());
+            }
+        }
+        if (wait > 0) {
+            logger.debug("Rate limit reached for {} in team {}", authentication.getName(), team);
+            reject(response, wait);
+            return;
+        }
+        var service = segments.length > 3 ? getServiceName(segments[3]) : null;
+        if (service == null || rateLimit.getDatasetConcurrency() <= 0 || !DatasetKey.isValidName(team) || !DatasetKey.isValidName(service)) {
+            // invalid names are rejected by the controller
+            filterChain.doFilter(request, response);
+            return;
+        }
+        var key = new DatasetKey(team, service);
+        var admitted = new boolean[1];
+        datasetRequests.compute(key, (k, requests) -> {
+            if (requests == null) {
+                requests = 0;
+            }
+            if (requests >= rateLimit.getDatasetConcurrency()) {
+                return requests;
+            }
+            admitted[0] = true;
+            return requests + 1;
+        });
+        if (!admitted[0]) {
+            logger.debug("Too many requests queued on {}", key);
+            reject(response, rateLimit.getDatasetRetryAfter().toNanos());
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            datasetRequests.computeIfPresent(key, (k, requests) -> requests == 1 ? null : requests - 1);
+        }
+    }
+
+    /**
+     * Drop the buckets that are full again, at most once per interval.
+     */
+    private void cleanup(long now) {
+        var next = nextCleanup.get();
+        if (now - next < 0 || !nextCleanup.compareAndSet(next, now + CLEANUP_INTERVAL)) {
+            return;
+        }
+        userBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        teamBuckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    private static long acquire(Map<String, TokenBucket> buckets, String name, double rate, int burst, long now) {
+        if (rate <= 0) {
+            return 0;
+        }
+        return buckets.computeIfAbsent(name, k -> new TokenBucket(rate, burst)).tryAcquire(now);
+    }
+
+    private static void release(Map<String, TokenBucket> buckets, String name) {
+        var bucket = buckets.get(name);
+        if (bucket != null) {
+            bucket.release();
+        }
+    }
+
+    private static void reject(HttpServletResponse response, long waitNanos) {
+        var retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+    }
+
+    private static String getServiceName(String opendataService) {
+        if (opendataService.endsWith(JSON_EXTENSION)) {
+            return opendataService.substring(0, opendataService.length() - JSON_EXTENSION.length());
+        }
+        return opendataService;
+    }
+}
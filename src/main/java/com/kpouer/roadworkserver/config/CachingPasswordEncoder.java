@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.config;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Password encoder remembering the credentials that were successfully verified so the expensive BCrypt check is
+ * done only once per TTL.
+ * The cache contains an HMAC of the credentials with a random key generated at startup, never the password itself.
+ *
+ * @author Matthieu Casanova
+ */
+public class CachingPasswordEncoder implements PasswordEncoder {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder delegate;
+    private final long ttl;
+    private final Mac prototype;
+    /**
+     * HMAC of the verified credentials and their expiration time (nano time)
+     */
+    private final Map<String, Long> verifiedCredentials = new ConcurrentHashMap<>();
+
+    public CachingPasswordEncoder(PasswordEncoder delegate, Duration ttl) {
+        this.delegate = delegate;
+        this.ttl = ttl.toNanos();
+        var secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        try {
+            prototype = Mac.getInstance(ALGORITHM);
+            prototype.init(new SecretKeySpec(secret, ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to create " + ALGORITHM, e);
+        }
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null) {
+            return delegate.matches(rawPassword, encodedPassword);
+        }
+        var key = hash(rawPassword, encodedPassword);
+        var now = System.nanoTime();
+        var expiration = verifiedCredentials.get(key);
+        if (expiration != null && expiration - now > 0) {
+            return true;
+        }
+        if (delegate.matches(rawPassword, encodedPassword)) {
+            verifiedCredentials.put(key, now + ttl);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Forget all verified credentials, must be called when the users are reloaded.
+     */
+    public void invalidate() {
+        verifiedCredentials.clear();
+    }
+
+    private String hash(CharSequence rawPassword, String encodedPassword) {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(ALGORITHM + " cannot be cloned", e);
+        }
+        mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+}
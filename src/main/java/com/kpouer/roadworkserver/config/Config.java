@@ -15,16 +15,266 @@
  */
 package com.kpouer.roadworkserver.config;
 
+import com.kpouer.roadwork.model.sync.Status;
 import lombok.Getter;
 import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
+ * Server configuration, bound to the <code>roadwork.*</code> properties.
+ *
  * @author Matthieu Casanova
  */
 @Configuration
+@ConfigurationProperties(prefix = "roadwork")
 @Getter
 @Setter
 public class Config {
     private String dataPath = "data";
+    /**
+     * Number of locks used to serialize the merges of a dataset.
+     */
+    private int lockStripes = 256;
+    /**
+     * Datasets with at least that many entries are merged in parallel.
+     */
+    private int parallelMergeThreshold = 20_000;
+    /**
+     * Maximum number of services in a batched setData, each one is merged on its own thread.
+     */
+    private int maxBatchServices = 64;
+    private final Cache cache = new Cache();
+    private final Storage storage = new Storage();
+    private final Security security = new Security();
+    private final Notification notification = new Notification();
+    private final Users users = new Users();
+    private final Retention retention = new Retention();
+    private final RateLimit rateLimit = new RateLimit();
+    private final Cluster cluster = new Cluster();
+    private final Audit audit = new Audit();
+    private final Warmup warmup = new Warmup();
+
+    @Getter
+    @Setter
+    public static class Cache {
+        /**
+         * Maximum number of datasets kept in memory.
+         */
+        private int maxSize = 1000;
+        /**
+         * A dataset that was not accessed for that duration is evicted from memory.
+         */
+        private Duration idleTimeout = Duration.ofMinutes(30);
+        /**
+         * Maximum time a merged dataset may stay in memory before being written to disk.
+         * Zero means every merge is written synchronously.
+         */
+        private Duration maxStaleness = Duration.ofSeconds(5);
+        /**
+         * Keep the datasets in memory as columns of primitives, it uses less memory but every read creates the
+         * entries again.
+         */
+        private boolean compact;
+    }
+
+    @Getter
+    @Setter
+    public static class Storage {
+        private StorageMode mode = StorageMode.JSON;
+        /**
+         * In json mode, the file format of the datasets.
+         */
+        private StorageFormat format = StorageFormat.JSON;
+        /**
+         * In journal mode, the journal of a dataset is compacted into a snapshot once it reaches that size.
+         */
+        private DataSize journalCompactionThreshold = DataSize.ofMegabytes(1);
+        /**
+         * In json mode, how the saves are made durable. Unless it is none, every merge is written before answering.
+         */
+        private Durability durability = Durability.NONE;
+        /**
+         * In group durability, the saves received during that time share the same commit.
+         */
+        private Duration groupCommitWindow = Duration.ofMillis(2);
+    }
+
+    @Getter
+    @Setter
+    public static class Security {
+        /**
+         * Duration during which successfully verified credentials are not checked again with BCrypt.
+         * Zero disables the cache.
+         */
+        private Duration credentialCacheTtl = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Users {
+        /**
+         * Reload the users when users.json is modified.
+         */
+        private boolean watch = true;
+        /**
+         * Delay between the modification of users.json and its reload, so it is not read while being written.
+         */
+        private Duration reloadDelay = Duration.ofMillis(500);
+    }
+
+    @Getter
+    @Setter
+    public static class Notification {
+        /**
+         * Number of change events buffered for a subscriber, a subscriber that doesn't keep up is disconnected.
+         */
+        private int queueCapacity = 16;
+        /**
+         * A subscription is closed after that duration, the client must subscribe again.
+         */
+        private Duration timeout = Duration.ofMinutes(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Warmup {
+        /**
+         * Load the datasets at startup, the server is ready once they are loaded.
+         */
+        private boolean enabled;
+        /**
+         * Number of datasets loaded in parallel, zero means the number of processors.
+         */
+        private int parallelism;
+    }
+
+    @Getter
+    @Setter
+    public static class Audit {
+        /**
+         * Write the merge decisions to <code>dataPath/audit</code>.
+         */
+        private boolean enabled = true;
+        /**
+         * Number of records waiting to be written, the records are dropped when it is full.
+         */
+        private int bufferSize = 65_536;
+    }
+
+    @Getter
+    @Setter
+    public static class Cluster {
+        /**
+         * Several instances share the data folder, the datasets are locked with file locks during a merge.
+         * It requires the json storage.
+         */
+        private boolean enabled;
+        /**
+         * Name of this instance, used in the files that are not shared like the audit log.
+         * When empty the host name and the process id are used.
+         */
+        private String instanceId = "";
+        /**
+         * How often the datasets having subscribers on this instance are checked for changes saved by the other
+         * instances, so their subscribers receive them.
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class RateLimit {
+        /**
+         * Sync requests per second allowed for a user, zero disables the limit.
+         */
+        private double userRate;
+        /**
+         * Sync requests a user can send at once.
+         */
+        private int userBurst = 30;
+        /**
+         * Sync requests per second allowed for all the users of a team, zero disables the limit.
+         */
+        private double teamRate;
+        /**
+         * Sync requests the users of a team can send at once.
+         */
+        private int teamBurst = 200;
+        /**
+         * Maximum number of requests merging or waiting to merge the same dataset, zero disables the limit.
+         * It must be well above the number of clients of a team syncing at the same time.
+         */
+        private int datasetConcurrency;
+        /**
+         * Retry-After sent when too many requests are queued on a dataset.
+         */
+        private Duration datasetRetryAfter = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Retention {
+        /**
+         * Entries with a final status that were not updated for that duration are removed. Zero keeps everything.
+         */
+        private Duration maxAge = Duration.ZERO;
+        /**
+         * The statuses of the roadworks that are over.
+         */
+        private Set<Status> finalStatuses = EnumSet.of(Status.Finished, Status.Treated);
+        /**
+         * Delay between two compactions.
+         */
+        private Duration interval = Duration.ofHours(1);
+        /**
+         * How long the removed entries are remembered, a client sending one of them unmodified during that time
+         * doesn't add it back.
+         */
+        private Duration removedMaxAge = Duration.ofDays(30);
+    }
+
+    public enum StorageMode {
+        /**
+         * Each dataset is a json file rewritten on every save.
+         */
+        JSON,
+        /**
+         * Each dataset is a json snapshot and an append-only journal of the modified entries.
+         */
+        JOURNAL,
+        /**
+         * The datasets are stored in an embedded MVStore key-value store, a save only writes the modified entries.
+         */
+        MVSTORE
+    }
+
+    public enum StorageFormat {
+        JSON,
+        /**
+         * Binary json, the field names are written once per file.
+         */
+        SMILE,
+        CBOR
+    }
+
+    public enum Durability {
+        /**
+         * The file is overwritten and left to the operating system cache, a power loss might lose or corrupt it.
+         */
+        NONE,
+        /**
+         * Each save writes a temporary file, syncs it and renames it atomically.
+         */
+        FSYNC,
+        /**
+         * Same as fsync but the renames of concurrent saves are committed together.
+         */
+        GROUP
+    }
 }
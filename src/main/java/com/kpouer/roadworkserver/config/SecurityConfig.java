@@ -20,14 +20,17 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.www.BasicAuthenticationEntryPoint;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
 /**
@@ -40,18 +43,21 @@ import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 @RequiredArgsConstructor
 public class SecurityConfig {
     private final BasicAuthenticationEntryPoint authenticationEntryPoint =  new BasicAuthenticationEntryPoint();
-    private final InMemoryUserDetailsManager userDetailsService = new InMemoryUserDetailsManager();
     private final UserConfig userConfig;
+    private final Config config;
 
     @PostConstruct
     public void postConstruct() {
         authenticationEntryPoint.setRealmName("Roadwork");
-        userConfig.getUsers().values().forEach(userDetailsService::createUser);
     }
 
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        var credentialCacheTtl = config.getSecurity().getCredentialCacheTtl();
+        if (credentialCacheTtl.isZero()) {
+            return new BCryptPasswordEncoder();
+        }
+        return new CachingPasswordEncoder(new BCryptPasswordEncoder(), credentialCacheTtl);
     }
 
     @Bean
@@ -61,28 +67,51 @@ public class SecurityConfig {
                 .requestMatchers(new AntPathRequestMatcher("/admin/*")).hasAuthority("Admin")
                 .requestMatchers(new AntPathRequestMatcher("/setData/*")).hasAuthority("Closure")
                 .requestMatchers(new AntPathRequestMatcher("/salt/*")).permitAll()
+                .requestMatchers(new AntPathRequestMatcher("/actuator/health/**")).permitAll()
+                .requestMatchers(new AntPathRequestMatcher("/actuator/**")).hasAuthority("Admin")
                 .anyRequest().authenticated()
                 .and()
                 .httpBasic()
-                .authenticationEntryPoint(authenticationEntryPoint);
+                .authenticationEntryPoint(authenticationEntryPoint)
+                .and()
+                // not a bean, otherwise it would also be registered as a servlet filter before the authentication
+                .addFilterAfter(new AdmissionControlFilter(config.getRateLimit(), userConfig), BasicAuthenticationFilter.class);
         return http.build();
     }
 
+    /**
+     * The users are read from the current {@link UserConfig} snapshot, a reload swaps the whole snapshot so there is
+     * no window where a user is missing.
+     */
     @Bean
-    public InMemoryUserDetailsManager userDetailsManager() {
-        return userDetailsService;
+    public UserDetailsService userDetailsService() {
+        return username -> {
+            var user = userConfig.getUserIgnoreCase(username);
+            if (user == null) {
+                throw new UsernameNotFoundException(username);
+            }
+            return user;
+        };
     }
 
     protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth.userDetailsService(userDetailsService)
-                .userDetailsPasswordManager(userDetailsService)
-                .passwordEncoder(new BCryptPasswordEncoder());
+        auth.userDetailsService(userDetailsService())
+                .passwordEncoder(passwordEncoder());
     }
 
+    /**
+     * Reload the users from users.json.
+     */
     public void removeAllUsers() {
-        logger.info("Removing all users");
-        userConfig.getUsers().keySet().forEach(userDetailsService::deleteUser);
+        logger.info("Reloading all users");
         userConfig.loadUsers();
-        userConfig.getUsers().values().forEach(userDetailsService::createUser);
+    }
+
+    @EventListener
+    public void onUsersReloaded(UsersReloadedEvent event) {
+        logger.info("{} users loaded", event.users().byName().size());
+        if (passwordEncoder() instanceof CachingPasswordEncoder cachingPasswordEncoder) {
+            cachingPasswordEncoder.invalidate();
+        }
     }
 }
\ No newline at end of file
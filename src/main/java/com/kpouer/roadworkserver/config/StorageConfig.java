@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.kpouer.roadworkserver.storage.DatasetStorage;
+import com.kpouer.roadworkserver.storage.JournalStorage;
+import com.kpouer.roadworkserver.storage.JsonFileStorage;
+import com.kpouer.roadworkserver.storage.MVStoreStorage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+/**
+ * Creates the storage selected by <code>roadwork.storage.mode</code>.
+ *
+ * @author Matthieu Casanova
+ */
+@Configuration
+@Slf4j
+@RequiredArgsConstructor
+public class StorageConfig {
+    private final Config config;
+
+    @Bean
+    public DatasetStorage datasetStorage() throws IOException {
+        var storage = config.getStorage();
+        logger.info("Using {} storage", storage.getMode());
+        var objectMapper = new ObjectMapper();
+        if (config.getCluster().isEnabled() && storage.getDurability() == Config.Durability.NONE) {
+            // the other instances may read a dataset at any time, it must be replaced atomically
+            logger.info("Cluster mode, using {} durability", Config.Durability.FSYNC);
+            storage.setDurability(Config.Durability.FSYNC);
+        }
+        return switch (storage.getMode()) {
+            case JSON -> switch (storage.getFormat()) {
+                case JSON -> new JsonFileStorage(config.getDataPath(), objectMapper, storage.getDurability(), storage.getGroupCommitWindow());
+                case SMILE -> new JsonFileStorage(config.getDataPath(), new SmileMapper(), ".smile", storage.getDurability(), storage.getGroupCommitWindow());
+                case CBOR -> new JsonFileStorage(config.getDataPath(), new CBORMapper(), ".cbor", storage.getDurability(), storage.getGroupCommitWindow());
+            };
+            case JOURNAL -> new JournalStorage(config.getDataPath(), storage.getJournalCompactionThreshold().toBytes(), objectMapper, storage.getDurability());
+            case MVSTORE -> new MVStoreStorage(config.getDataPath(), objectMapper);
+        };
+    }
+}
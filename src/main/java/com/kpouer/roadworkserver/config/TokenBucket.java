@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a generic cell rate algorithm : the only state is the theoretical arrival
+ * time of the next request.
+ *
+ * @author Matthieu Casanova
+ */
+class TokenBucket {
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param rate  the number of requests per second
+     * @param burst the number of requests accepted at once
+     */
+    TokenBucket(double rate, int burst) {
+        interval = (long) (1_000_000_000L / rate);
+        tolerance = interval * (Math.max(burst, 1) - 1);
+        theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take a token if there is one.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return 0 if the request is accepted, otherwise the number of nanoseconds before a token is available
+     */
+    long tryAcquire(long now) {
+        while (true) {
+            var tat = theoreticalArrivalTime.get();
+            var allowedAt = tat - tolerance;
+            if (now - allowedAt < 0) {
+                return allowedAt - now;
+            }
+            var newTat = Math.max(tat, now) + interval;
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(long)}, when the request is rejected by another limit.
+     */
+    void release() {
+        theoreticalArrivalTime.addAndGet(-interval);
+    }
+
+    /**
+     * Returns true if the whole burst is available, the bucket is then the same as a new one and can be dropped.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    boolean isFull(long now) {
+        return now - theoreticalArrivalTime.get() >= 0;
+    }
+}
@@ -18,13 +18,18 @@ package com.kpouer.roadworkserver.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kpouer.roadworkserver.model.User;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Configuration;
 
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -33,44 +38,121 @@ import java.util.stream.Collectors;
 @Slf4j
 @RequiredArgsConstructor
 public class UserConfig {
+    private static final String USERS_FILE = "users.json";
+
     private final Config config;
-    private Map<String, User> users;
+    private final ApplicationEventPublisher eventPublisher;
+    /**
+     * Replaced atomically on reload so readers never lock and never see a partial set of users.
+     */
+    private volatile Users users = Users.EMPTY;
+    private WatchService watchService;
 
     @PostConstruct
     public void postConstruct() {
         loadUsers();
+        if (config.getUsers().isWatch()) {
+            watchUsers();
+        }
     }
 
     /**
-     * Load the users from the users.json file.
-     * The users must be removed from the userDetailsService before calling this method.
+     * Load the users from the users.json file and publish a {@link UsersReloadedEvent}.
+     * If the file cannot be read the current users are kept.
      */
     public void loadUsers() {
         logger.info("loadUsers");
-        var path = Path.of(config.getDataPath(), "users.json");
+        var path = Path.of(config.getDataPath(), USERS_FILE);
         if (Files.exists(path)) {
             try {
                 var objectMapper = new ObjectMapper();
                 var userArray = objectMapper.readValue(path.toFile(), User[].class);
-                users = Arrays.stream(userArray).collect(Collectors.toMap(User::getUsername, Function.identity()));
-            } catch (IOException e) {
-                logger.error("Unable read data", e);
-                users = Collections.emptyMap();
+                users = new Users(Arrays.stream(userArray).collect(Collectors.toUnmodifiableMap(User::getUsername, Function.identity())));
+            } catch (IOException | IllegalStateException e) {
+                logger.error("Unable read data, keeping {} users", users.byName().size(), e);
+                return;
             }
         } else {
             logger.warn("No {} file", path);
-            users = Collections.emptyMap();
+            users = Users.EMPTY;
+        }
+        eventPublisher.publishEvent(new UsersReloadedEvent(users));
+    }
+
+    /**
+     * Reload the users when users.json is modified.
+     */
+    private void watchUsers() {
+        var dataPath = Path.of(config.getDataPath());
+        if (!Files.isDirectory(dataPath)) {
+            logger.warn("{} doesn't exist, users.json is not watched", dataPath);
+            return;
+        }
+        try {
+            watchService = dataPath.getFileSystem().newWatchService();
+            dataPath.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.error("Unable to watch {}", dataPath, e);
+            return;
+        }
+        var thread = new Thread(this::watchLoop, "users-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                var watchKey = watchService.take();
+                var usersModified = watchKey.pollEvents()
+                        .stream()
+                        .anyMatch(event -> USERS_FILE.equals(String.valueOf(event.context())));
+                watchKey.reset();
+                if (usersModified) {
+                    // an editor usually writes the file in several events, wait for it to be complete
+                    Thread.sleep(config.getUsers().getReloadDelay().toMillis());
+                    var pendingKey = watchService.poll();
+                    if (pendingKey != null) {
+                        pendingKey.pollEvents();
+                        pendingKey.reset();
+                    }
+                    loadUsers();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            logger.info("Stopped watching users");
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
         }
     }
 
     public Map<String, User> getUsers() {
-        return users;
+        return users.byName();
     }
 
     public User getUser(String name) {
-        return users.get(name);
+        return users.byName().get(name);
     }
 
+    /**
+     * Returns a user ignoring the case of its name, as the authentication does.
+     *
+     * @param name the user name
+     * @return the user or null
+     */
+    public User getUserIgnoreCase(String name) {
+        return users.byLowerCaseName().get(name.toLowerCase(Locale.ROOT));
+    }
 
     /**
      * Returns a list of all teams.
@@ -78,13 +160,23 @@ public class UserConfig {
      * @return a list of all teams
      */
     public Collection<String> getTeams() {
-        var teams = new HashSet<String>();
-        users
-                .values()
-                .stream()
-                .map(User::getTeams)
-                .map(List::of)
-                .forEach(teams::addAll);
-        return teams;
+        return users.teams();
+    }
+
+    /**
+     * Immutable snapshot of the users with the precomputed indexes.
+     *
+     * @param byName          the users by name
+     * @param byLowerCaseName the users by lower case name
+     * @param teams           all teams
+     */
+    public record Users(Map<String, User> byName, Map<String, User> byLowerCaseName, Set<String> teams) {
+        private static final Users EMPTY = new Users(Map.of());
+
+        Users(Map<String, User> byName) {
+            this(byName,
+                    byName.values().stream().collect(Collectors.toUnmodifiableMap(user -> user.getUsername().toLowerCase(Locale.ROOT), Function.identity())),
+                    byName.values().stream().flatMap(user -> Arrays.stream(user.getTeams())).collect(Collectors.toUnmodifiableSet()));
+        }
     }
 }
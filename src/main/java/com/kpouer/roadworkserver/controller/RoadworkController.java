@@ -15,18 +15,33 @@
  */
 package com.kpouer.roadworkserver.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.kpouer.roadwork.model.sync.SyncData;
 import com.kpouer.roadworkserver.config.UserConfig;
+import com.kpouer.roadworkserver.model.DeltaRequest;
+import com.kpouer.roadworkserver.model.DeltaResponse;
+import com.kpouer.roadworkserver.model.ServiceSyncResult;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.model.InvalidDatasetNameException;
+import com.kpouer.roadworkserver.service.BatchTooLargeException;
+import com.kpouer.roadworkserver.service.ChangeNotifier;
 import com.kpouer.roadworkserver.service.DataService;
+import com.kpouer.roadworkserver.service.SyncMetrics;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Matthieu Casanova
@@ -37,26 +52,209 @@ import java.util.Map;
 public class RoadworkController {
     private final DataService dataService;
     private final UserConfig userConfig;
+    private final SyncMetrics syncMetrics;
+    private final ChangeNotifier changeNotifier;
 
     @PostMapping("/setData/{team}/{opendataService}")
     public ResponseEntity<Map<String, SyncData>> setData(HttpServletRequest request,
                                                          @PathVariable String team,
                                                          @PathVariable String opendataService,
                                                          @RequestBody Map<String, SyncData> syncDataList) {
+        opendataService = getServiceName(opendataService);
+        if (!checkTeam(request, team, opendataService)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+        }
+
+        recordRequestMetrics(request, team, opendataService);
+        var stringSyncDataMap = dataService.setData(team, opendataService, syncDataList);
+        return new ResponseEntity<>(stringSyncDataMap, HttpStatus.OK);
+    }
+
+    /**
+     * Same as the regular setData for large datasets, the entries are merged while the body is parsed.
+     * It is selected with the <code>streaming=true</code> request parameter, only json bodies are streamed.
+     */
+    @PostMapping(value = "/setData/{team}/{opendataService}", params = "streaming=true", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, SyncData>> setDataStreaming(HttpServletRequest request,
+                                                                  @PathVariable String team,
+                                                                  @PathVariable String opendataService) throws IOException {
+        opendataService = getServiceName(opendataService);
+        if (!checkTeam(request, team, opendataService)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+        }
+
+        try {
+            var stringSyncDataMap = dataService.setData(team, opendataService, request.getInputStream());
+            return new ResponseEntity<>(stringSyncDataMap, HttpStatus.OK);
+        } catch (JsonProcessingException e) {
+            logger.warn("Invalid dataset: {}", e.getOriginalMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    /**
+     * Sync several services of a team in one request.
+     * Each service gets its own result so a failing service doesn't fail the others.
+     */
+    @PostMapping("/setData/{team}")
+    public ResponseEntity<Map<String, ServiceSyncResult>> setData(HttpServletRequest request,
+                                                                  @PathVariable String team,
+                                                                  @RequestBody Map<String, Map<String, SyncData>> syncDataLists) {
+        if (!checkTeam(request, team, "batch")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+        }
+
+        var normalizedSyncDataLists = new HashMap<String, Map<String, SyncData>>();
+        syncDataLists.forEach((opendataService, syncDataList) -> normalizedSyncDataLists.put(getServiceName(opendataService), syncDataList));
+        var results = dataService.setData(team, normalizedSyncDataLists);
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    /**
+     * Incremental sync, the client sends only its modified entries and receives only the entries modified since
+     * its last sync.
+     */
+    @PostMapping("/sync/{team}/{opendataService}")
+    public ResponseEntity<DeltaResponse> sync(HttpServletRequest request,
+                                              @PathVariable String team,
+                                              @PathVariable String opendataService,
+                                              @RequestBody DeltaRequest deltaRequest) {
+        opendataService = getServiceName(opendataService);
+        if (!checkTeam(request, team, opendataService)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+        }
+
+        recordRequestMetrics(request, team, opendataService);
+        var deltaResponse = dataService.sync(team, opendataService, deltaRequest);
+        return new ResponseEntity<>(deltaResponse, HttpStatus.OK);
+    }
+
+    /**
+     * Returns the dataset without merging anything.
+     * The answer is 304 Not Modified if the client already has the current version.
+     */
+    @GetMapping("/data/{team}/{opendataService}")
+    public ResponseEntity<byte[]> getData(HttpServletRequest request,
+                                          @PathVariable String team,
+                                          @PathVariable String opendataService,
+                                          @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                          @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws IOException {
+        opendataService = getServiceName(opendataService);
+        if (!checkTeam(request, team, opendataService)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+        }
+
+        var encodedDataset = dataService.getEncodedData(team, opendataService);
+        var gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        var etag = gzip ? encodedDataset.gzipEtag() : encodedDataset.etag();
+        // a client may revalidate with the tag of the other coding, both describe the same version
+        if (matches(ifNoneMatch, encodedDataset.etag()) || matches(ifNoneMatch, encodedDataset.gzipEtag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        var response = ResponseEntity.ok()
+                .eTag(etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return response
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(encodedDataset.gzip());
+        }
+        return response.body(encodedDataset.json());
+    }
+
+    /**
+     * Subscribe to the changes of a dataset with Server-Sent Events.
+     * Each <code>changes</code> event contains the entries modified by a merge.
+     */
+    @GetMapping(value = "/subscribe/{team}/{opendataService}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribe(HttpServletRequest request,
+                                                @PathVariable String team,
+                                                @PathVariable String opendataService) {
+        opendataService = getServiceName(opendataService);
+        if (!checkTeam(request, team, opendataService)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+        }
+
+        return ResponseEntity.ok(changeNotifier.subscribe(new DatasetKey(team, opendataService)));
+    }
+
+    /**
+     * Invalid team or service names are rejected before reaching the storage, see {@link DatasetKey}.
+     * The rejected name is only logged, it is not sent back to the client.
+     */
+    @ExceptionHandler(InvalidDatasetNameException.class)
+    public ResponseEntity<String> invalidDatasetName(InvalidDatasetNameException e) {
+        logger.warn("Invalid request: {}", e.getMessage());
+        return ResponseEntity.badRequest().body("Invalid dataset name");
+    }
+
+    @ExceptionHandler(BatchTooLargeException.class)
+    public ResponseEntity<String> batchTooLarge(BatchTooLargeException e) {
+        logger.warn("Invalid request: {}", e.getMessage());
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (var candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // If-None-Match uses the weak comparison
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getServiceName(String opendataService) {
         if (opendataService.endsWith(".json")) {
-            opendataService = opendataService.substring(0, opendataService.length() - ".json".length());
+            return opendataService.substring(0, opendataService.length() - ".json".length());
         }
+        return opendataService;
+    }
+
+    /**
+     * Check that the user belongs to the team.
+     *
+     * @return true if the user belongs to the team
+     */
+    private boolean checkTeam(HttpServletRequest request, String team, String opendataService) {
         var username = request.getUserPrincipal().getName();
         var userDetails = userConfig.getUser(username);
         MDC.put("team", team);
         MDC.put("user", username);
         MDC.put("service", opendataService);
+        if (userDetails == null) {
+            // removed by a reload of users.json after the authentication
+            logger.warn("User does not exist anymore");
+            return false;
+        }
         if (!userDetails.hasTeam(team)) {
             logger.warn("User do not belong to that team");
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+            return false;
         }
+        return true;
+    }
 
-        var stringSyncDataMap = dataService.setData(team, opendataService, syncDataList);
-        return new ResponseEntity<>(stringSyncDataMap, HttpStatus.OK);
+    /**
+     * Record the parse time and payload size measured by {@link SyncRequestBodyAdvice}.
+     */
+    private void recordRequestMetrics(HttpServletRequest request, String team, String opendataService) {
+        var parseTime = request.getAttribute(SyncRequestBodyAdvice.PARSE_TIME_ATTRIBUTE);
+        var payloadSize = request.getAttribute(SyncRequestBodyAdvice.PAYLOAD_SIZE_ATTRIBUTE);
+        if (parseTime != null && payloadSize != null) {
+            var meters = syncMetrics.get(new DatasetKey(team, opendataService));
+            meters.getParse().record((Long) parseTime, TimeUnit.NANOSECONDS);
+            meters.getPayloadSize().record((Long) payloadSize);
+        }
     }
 }
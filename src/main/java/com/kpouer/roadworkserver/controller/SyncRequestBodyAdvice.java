@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.controller;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+/**
+ * Measures the parse time and the size of the {@link RoadworkController} request bodies.
+ * The values are stored in request attributes and recorded by the controller once the dataset is known.
+ *
+ * @author Matthieu Casanova
+ */
+@ControllerAdvice(assignableTypes = RoadworkController.class)
+public class SyncRequestBodyAdvice extends RequestBodyAdviceAdapter {
+    static final String PARSE_TIME_ATTRIBUTE = SyncRequestBodyAdvice.class.getName() + ".parseTime";
+    static final String PAYLOAD_SIZE_ATTRIBUTE = SyncRequestBodyAdvice.class.getName() + ".payloadSize";
+    private static final String INPUT_STREAM_ATTRIBUTE = SyncRequestBodyAdvice.class.getName() + ".inputStream";
+
+    @Override
+    public boolean supports(MethodParameter methodParameter, Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public HttpInputMessage beforeBodyRead(HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                           Class<? extends HttpMessageConverter<?>> converterType) throws IOException {
+        var inputStream = new CountingInputStream(inputMessage.getBody());
+        var attributes = RequestContextHolder.currentRequestAttributes();
+        attributes.setAttribute(INPUT_STREAM_ATTRIBUTE, inputStream, RequestAttributes.SCOPE_REQUEST);
+        return new HttpInputMessage() {
+            @Override
+            public InputStream getBody() {
+                return inputStream;
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return inputMessage.getHeaders();
+            }
+        };
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                Class<? extends HttpMessageConverter<?>> converterType) {
+        var attributes = RequestContextHolder.currentRequestAttributes();
+        var inputStream = (CountingInputStream) attributes.getAttribute(INPUT_STREAM_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (inputStream != null) {
+            attributes.setAttribute(PARSE_TIME_ATTRIBUTE, System.nanoTime() - inputStream.start, RequestAttributes.SCOPE_REQUEST);
+            attributes.setAttribute(PAYLOAD_SIZE_ATTRIBUTE, inputStream.count, RequestAttributes.SCOPE_REQUEST);
+            attributes.removeAttribute(INPUT_STREAM_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        }
+        return body;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final long start = System.nanoTime();
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.model;
+
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable dataset stored as columns of primitives instead of a map of {@link SyncData} objects.
+ * The ids are interned and indexed by an open addressing hash table, a {@link SyncData} is created each time an
+ * entry is read so the returned entries can be modified without changing the dataset.
+ *
+ * @author Matthieu Casanova
+ */
+public final class CompactDataset extends AbstractMap<String, SyncData> {
+    private static final Status[] STATUSES = Status.values();
+    private static final byte NO_STATUS = -1;
+
+    private final String[] ids;
+    private final long[] serverUpdateTimes;
+    private final long[] localUpdateTimes;
+    private final byte[] statuses;
+    private final BitSet dirty;
+    /**
+     * Index + 1 of the entry of each slot, 0 for an empty slot.
+     */
+    private final int[] table;
+    private Set<Entry<String, SyncData>> entrySet;
+
+    private CompactDataset(Map<String, SyncData> data) {
+        var size = data.size();
+        ids = new String[size];
+        serverUpdateTimes = new long[size];
+        localUpdateTimes = new long[size];
+        statuses = new byte[size];
+        dirty = new BitSet(size);
+        table = new int[Integer.highestOneBit(Math.max(size, 1)) << 2];
+        var index = 0;
+        for (var entry : data.entrySet()) {
+            var id = entry.getKey().intern();
+            var syncData = entry.getValue();
+            ids[index] = id;
+            serverUpdateTimes[index] = syncData.getServerUpdateTime();
+            localUpdateTimes[index] = syncData.getLocalUpdateTime();
+            statuses[index] = syncData.getStatus() == null ? NO_STATUS : (byte) syncData.getStatus().ordinal();
+            dirty.set(index, syncData.isDirty());
+            var slot = slot(id);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = ++index;
+        }
+    }
+
+    /**
+     * Returns a compact copy of a dataset.
+     *
+     * @param data the dataset
+     * @return the compact dataset, or the dataset itself if it is already compact
+     */
+    public static CompactDataset of(Map<String, SyncData> data) {
+        if (data instanceof CompactDataset compactDataset) {
+            return compactDataset;
+        }
+        return new CompactDataset(data);
+    }
+
+    private int slot(Object id) {
+        var hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (table.length - 1);
+    }
+
+    private int indexOf(Object id) {
+        if (id == null) {
+            return -1;
+        }
+        var slot = slot(id);
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (ids[entry - 1].equals(id)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    private SyncData syncData(int index) {
+        var syncData = new SyncData();
+        syncData.setServerUpdateTime(serverUpdateTimes[index]);
+        syncData.setLocalUpdateTime(localUpdateTimes[index]);
+        syncData.setStatus(statuses[index] == NO_STATUS ? null : STATUSES[statuses[index]]);
+        syncData.setDirty(dirty.get(index));
+        return syncData;
+    }
+
+    @Override
+    public SyncData get(Object key) {
+        var index = indexOf(key);
+        return index == -1 ? null : syncData(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super SyncData> action) {
+        for (int i = 0; i < ids.length; i++) {
+            action.accept(ids[i], syncData(i));
+        }
+    }
+
+    @Override
+    public Set<Entry<String, SyncData>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, SyncData>> iterator() {
+                    return new Iterator<>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < ids.length;
+                        }
+
+                        @Override
+                        public Entry<String, SyncData> next() {
+                            if (index >= ids.length) {
+                                throw new NoSuchElementException();
+                            }
+                            var entry = new SimpleImmutableEntry<>(ids[index], syncData(index));
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ids.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.model;
+
+/**
+ * Identifies the dataset of an opendata service for a team.
+ *
+ * @param team    the team name
+ * @param service the opendata service name
+ * @author Matthieu Casanova
+ */
+public record DatasetKey(String team, String service) {
+    /**
+     * @throws InvalidDatasetNameException if the team or the service is not a valid file name, since they are used
+     *                                     to build the dataset path
+     */
+    public DatasetKey {
+        if (!isValidName(team) || !isValidName(service)) {
+            throw new InvalidDatasetNameException("Invalid dataset name " + team + '/' + service);
+        }
+    }
+
+    /**
+     * Returns true if the name can be used as a team or service name, it must not be able to escape the data folder.
+     */
+    public static boolean isValidName(String name) {
+        return name != null &&
+                !name.isEmpty() &&
+                !name.equals(".") &&
+                !name.equals("..") &&
+                name.indexOf('/') == -1 &&
+                name.indexOf('\\') == -1 &&
+                name.indexOf('\0') == -1;
+    }
+
+    @Override
+    public String toString() {
+        return team + '/' + service;
+    }
+}
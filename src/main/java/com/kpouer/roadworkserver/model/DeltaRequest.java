@@ -0,0 +1,40 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.model;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+
+/**
+ * Changes sent by a client for an incremental sync.
+ *
+ * @author Matthieu Casanova
+ */
+@Getter
+@Setter
+public class DeltaRequest {
+    /**
+     * The watermark returned by the server on the previous sync, 0 for a first sync.
+     */
+    private long since;
+    /**
+     * The entries modified by the client.
+     */
+    private Map<String, SyncData> changes;
+}
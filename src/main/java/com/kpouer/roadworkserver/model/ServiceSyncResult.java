@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.kpouer.roadwork.model.sync.SyncData;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Map;
+
+/**
+ * Result of the sync of a service in a batch, either the merged data or an error.
+ *
+ * @author Matthieu Casanova
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ServiceSyncResult {
+    private Map<String, SyncData> data;
+    private String error;
+
+    public static ServiceSyncResult success(Map<String, SyncData> data) {
+        return new ServiceSyncResult(data, null);
+    }
+
+    public static ServiceSyncResult failure(String error) {
+        return new ServiceSyncResult(null, error);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.kpouer.roadworkserver.model;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -23,14 +24,16 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Set;
 
 /**
  * @author Matthieu Casanova
  */
 @Getter
 @Setter
-@ToString(exclude = "password")
+@ToString(exclude = {"password", "teamSet"})
 public class User implements UserDetails {
     private String username;
     /**
@@ -38,8 +41,16 @@ public class User implements UserDetails {
      */
     private String password;
     private String[] teams;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Set<String> teamSet = Set.of();
     private boolean admin;
 
+    public void setTeams(String[] teams) {
+        this.teams = teams;
+        teamSet = Set.copyOf(Arrays.asList(teams));
+    }
+
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
         var authorities = new ArrayList<GrantedAuthority>();
@@ -71,11 +82,6 @@ public class User implements UserDetails {
     }
 
     public boolean hasTeam(String team) {
-        for (var t : teams) {
-            if (t.equals(team)) {
-                return true;
-            }
-        }
-        return false;
+        return teamSet.contains(team);
     }
 }
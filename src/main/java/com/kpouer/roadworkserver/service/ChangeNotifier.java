@@ -0,0 +1,203 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes the entries modified by a merge to the clients subscribed to the dataset with Server-Sent Events.
+ * An event is serialized once and the same instance is queued to every subscriber. Each subscriber has a bounded
+ * queue drained by its own virtual thread, a subscriber whose queue is full is disconnected and must resync.
+ *
+ * @author Matthieu Casanova
+ */
+@Component
+@Slf4j
+public class ChangeNotifier {
+    private final Config.Notification notificationConfig;
+    private final ObjectWriter writer;
+    private final Map<DatasetKey, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicLong disconnectedSubscribers = new AtomicLong();
+
+    public ChangeNotifier(Config config) {
+        notificationConfig = config.getNotification();
+        var objectMapper = new ObjectMapper();
+        writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class));
+    }
+
+    /**
+     * Subscribe to the changes of a dataset.
+     *
+     * @param key the dataset key
+     * @return the emitter sending the events
+     */
+    public SseEmitter subscribe(DatasetKey key) {
+        var emitter = new SseEmitter(notificationConfig.getTimeout().toMillis());
+        var subscriber = new Subscriber(emitter, new ArrayBlockingQueue<>(notificationConfig.getQueueCapacity()));
+        subscribers.compute(key, (k, datasetSubscribers) -> {
+            if (datasetSubscribers == null) {
+                datasetSubscribers = new CopyOnWriteArrayList<>();
+            }
+            datasetSubscribers.add(subscriber);
+            return datasetSubscribers;
+        });
+        Runnable unsubscribe = () -> unsubscribe(key, subscriber);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(throwable -> unsubscribe.run());
+        subscriber.drainer = Thread.ofVirtual()
+                .name("subscriber-" + key)
+                .start(subscriber::drain);
+        logger.info("New subscriber for {}", key);
+        return emitter;
+    }
+
+    public boolean hasSubscribers(DatasetKey key) {
+        return getSubscriberCount(key) > 0;
+    }
+
+    /**
+     * Returns the number of subscribers of a dataset.
+     *
+     * @param key the dataset key
+     * @return the number of subscribers
+     */
+    public int getSubscriberCount(DatasetKey key) {
+        var datasetSubscribers = subscribers.get(key);
+        return datasetSubscribers == null ? 0 : datasetSubscribers.size();
+    }
+
+    /**
+     * Returns the datasets having at least one subscriber.
+     */
+    public Set<DatasetKey> getSubscribedDatasets() {
+        return subscribers.keySet();
+    }
+
+    /**
+     * Returns the number of subscribers disconnected because their queue was full, since the server started.
+     */
+    public long getDisconnectedSubscribers() {
+        return disconnectedSubscribers.get();
+    }
+
+    /**
+     * Push the entries modified by a merge.
+     *
+     * @param key      the dataset key
+     * @param existing the dataset before the merge
+     * @param merged   the dataset after the merge
+     */
+    public void publish(DatasetKey key, Map<String, SyncData> existing, Map<String, SyncData> merged) {
+        var datasetSubscribers = subscribers.get(key);
+        if (datasetSubscribers == null || datasetSubscribers.isEmpty()) {
+            return;
+        }
+        var changes = new HashMap<String, SyncData>();
+        merged.forEach((id, syncData) -> {
+            var existingSyncData = existing.get(id);
+            if (existingSyncData == null || existingSyncData.getServerUpdateTime() != syncData.getServerUpdateTime()) {
+                changes.put(id, syncData);
+            }
+        });
+        if (changes.isEmpty()) {
+            return;
+        }
+        Set<ResponseBodyEmitter.DataWithMediaType> event;
+        try {
+            event = SseEmitter.event()
+                    .name("changes")
+                    .data(writer.writeValueAsString(changes), MediaType.APPLICATION_JSON)
+                    .build();
+        } catch (IOException e) {
+            logger.error("Unable to serialize changes of {}", key, e);
+            return;
+        }
+        for (var subscriber : datasetSubscribers) {
+            if (!subscriber.queue.offer(event)) {
+                logger.warn("Disconnecting slow subscriber of {}", key);
+                // the emitter is completed by the drainer, it is probably blocked writing to the slow client and the
+                // merge must not wait for it
+                subscriber.disconnected = true;
+                disconnectedSubscribers.incrementAndGet();
+                unsubscribe(key, subscriber);
+            }
+        }
+    }
+
+    private void unsubscribe(DatasetKey key, Subscriber subscriber) {
+        subscribers.computeIfPresent(key, (k, datasetSubscribers) -> {
+            datasetSubscribers.remove(subscriber);
+            return datasetSubscribers.isEmpty() ? null : datasetSubscribers;
+        });
+        var drainer = subscriber.drainer;
+        if (drainer != null) {
+            drainer.interrupt();
+        }
+    }
+
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        private final BlockingQueue<Set<ResponseBodyEmitter.DataWithMediaType>> queue;
+        private volatile Thread drainer;
+        /**
+         * Set when the subscriber is dropped because it is too slow.
+         */
+        private volatile boolean disconnected;
+
+        private Subscriber(SseEmitter emitter, BlockingQueue<Set<ResponseBodyEmitter.DataWithMediaType>> queue) {
+            this.emitter = emitter;
+            this.queue = queue;
+        }
+
+        private void drain() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    emitter.send(queue.take());
+                }
+            } catch (InterruptedException e) {
+                // unsubscribed
+            } catch (IOException | IllegalStateException e) {
+                // the client is gone, the emitter callbacks unsubscribe it
+                emitter.completeWithError(e);
+                return;
+            }
+            if (disconnected) {
+                emitter.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadworkserver.model.DatasetKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locks shared by several server instances using the same data folder.
+ * Each dataset has a lock file <code>dataPath/team/service.lock</code> locked with the operating system file locks
+ * during a merge. The file contains the generation of the dataset, incremented by every save, so an instance can
+ * tell that its cached version was modified by another instance.
+ * A missing or empty lock file gets a generation seeded from the clock, in microseconds, so a deleted lock file
+ * doesn't restart the generations and cannot give again the entity tag of an older version.
+ * Within an instance the calls for a dataset must be serialized by the caller since the file locks are held by the
+ * process.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+class ClusterLocks {
+    private static final String EXTENSION = ".lock";
+
+    private final String dataPath;
+    /**
+     * The generation of the datasets as last seen by this instance.
+     */
+    private final Map<DatasetKey, Long> knownGenerations = new ConcurrentHashMap<>();
+
+    ClusterLocks(String dataPath) {
+        this.dataPath = dataPath;
+    }
+
+    /**
+     * Lock a dataset, waiting for the other instances to release it.
+     *
+     * @param key the dataset key
+     * @return the lock
+     * @throws UncheckedIOException if the lock file cannot be locked
+     */
+    DatasetLock lock(DatasetKey key) {
+        var path = getPath(key);
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            var fileLock = channel.lock();
+            var generation = readGeneration(channel);
+            if (generation == 0) {
+                generation = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+                writeGeneration(channel, generation);
+            }
+            var knownGeneration = knownGenerations.put(key, generation);
+            return new DatasetLock(key, channel, fileLock, generation, knownGeneration == null || knownGeneration != generation);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException("Unable to lock " + key, e);
+        }
+    }
+
+    /**
+     * Check without locking if another instance saved a dataset since this instance last saw it.
+     *
+     * @param key the dataset key
+     * @return true if the dataset might have been modified
+     */
+    boolean isOutdated(DatasetKey key) {
+        var knownGeneration = knownGenerations.get(key);
+        if (knownGeneration == null) {
+            return true;
+        }
+        try (var channel = FileChannel.open(getPath(key), StandardOpenOption.READ)) {
+            return readGeneration(channel) != knownGeneration;
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            logger.warn("Unable to read the generation of {}", key, e);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the generation of a dataset as last seen by this instance.
+     *
+     * @param key the dataset key
+     * @return the generation, 0 if the dataset was never locked by this instance
+     */
+    long getGeneration(DatasetKey key) {
+        return knownGenerations.getOrDefault(key, 0L);
+    }
+
+    private Path getPath(DatasetKey key) {
+        return Path.of(dataPath, key.team(), key.service() + EXTENSION);
+    }
+
+    private static long readGeneration(FileChannel channel) throws IOException {
+        var buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.flip().getLong();
+    }
+
+    private static void writeGeneration(FileChannel channel, long generation) throws IOException {
+        var buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, generation);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close lock file", e);
+            }
+        }
+    }
+
+    class DatasetLock implements AutoCloseable {
+        private final DatasetKey key;
+        private final FileChannel channel;
+        private final FileLock fileLock;
+        private final boolean outdated;
+        private long generation;
+
+        private DatasetLock(DatasetKey key, FileChannel channel, FileLock fileLock, long generation, boolean outdated) {
+            this.key = key;
+            this.channel = channel;
+            this.fileLock = fileLock;
+            this.generation = generation;
+            this.outdated = outdated;
+        }
+
+        /**
+         * @return true if the dataset was saved by another instance since this instance last saw it
+         */
+        boolean isOutdated() {
+            return outdated;
+        }
+
+        /**
+         * Increment the generation before saving the dataset.
+         * It is done first so a failed save makes the other instances reload the dataset instead of missing a
+         * change.
+         */
+        void incrementGeneration() {
+            generation++;
+            try {
+                writeGeneration(channel, generation);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to update the generation of " + key, e);
+            }
+            knownGenerations.put(key, generation);
+        }
+
+        @Override
+        public void close() {
+            try {
+                fileLock.release();
+            } catch (IOException e) {
+                logger.warn("Unable to release the lock of {}", key, e);
+            }
+            closeQuietly(channel);
+        }
+    }
+}
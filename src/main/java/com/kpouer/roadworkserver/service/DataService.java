@@ -15,17 +15,45 @@
  */
 package com.kpouer.roadworkserver.service;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.audit.AuditLog;
 import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.model.DeltaRequest;
+import com.kpouer.roadworkserver.model.DeltaResponse;
+import com.kpouer.roadworkserver.model.ServiceSyncResult;
+import com.kpouer.roadworkserver.storage.DatasetStorage;
+import com.kpouer.roadworkserver.util.DatasetLocks;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Collections;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author Matthieu Casanova
@@ -33,99 +61,697 @@ import java.util.Map;
 @Service
 @Slf4j
 public class DataService {
-    private final Config config;
-    private final ObjectMapper objectMapper;
+    private final DatasetCache cache;
+    private final DatasetLocks locks;
+    /**
+     * Locks shared with the other instances, null if the cluster mode is disabled.
+     */
+    private final ClusterLocks clusterLocks;
+    /**
+     * Checks the subscribed datasets for the changes of the other instances, null if the cluster mode is disabled.
+     */
+    private final ScheduledExecutorService clusterPoller;
+    private final Tombstones tombstones;
+    private final SyncMetrics syncMetrics;
+    private final ChangeNotifier changeNotifier;
+    private final AuditLog auditLog;
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+    private final ObjectReader syncDataReader;
+    private final int parallelMergeThreshold;
+    private final int maxBatchServices;
+    private final ExecutorService batchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    /**
+     * Distinguish the entity tags of this run from the ones of a previous run since the versions restart at startup.
+     */
+    private final String etagPrefix = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
 
-    public DataService(Config config) {
-        this.config = config;
-        objectMapper = new ObjectMapper();
+    public DataService(Config config, DatasetStorage storage, SyncMetrics syncMetrics, ChangeNotifier changeNotifier, AuditLog auditLog) {
+        this.syncMetrics = syncMetrics;
+        this.changeNotifier = changeNotifier;
+        this.auditLog = auditLog;
+        var objectMapper = new ObjectMapper();
+        var mapType = objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class);
+        writer = objectMapper.writerFor(mapType);
+        reader = objectMapper.readerFor(mapType);
+        // same leniency as the request bodies parsed by Spring
+        syncDataReader = objectMapper.readerFor(SyncData.class).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        if (config.getCluster().isEnabled()) {
+            if (config.getStorage().getMode() != Config.StorageMode.JSON) {
+                throw new IllegalStateException("The cluster mode requires the json storage");
+            }
+            clusterLocks = new ClusterLocks(config.getDataPath());
+        } else {
+            clusterLocks = null;
+        }
+        // a durable save must be done before answering the client, and in cluster mode before unlocking the dataset
+        var writeThrough = clusterLocks != null || config.getStorage().getMode() != Config.StorageMode.MVSTORE &&
+                config.getStorage().getDurability() != Config.Durability.NONE;
+        cache = new DatasetCache(config.getCache(), writeThrough,
+                key -> {
+                    var start = System.nanoTime();
+                    var data = storage.load(key);
+                    syncMetrics.get(key).getLoad().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    return data;
+                },
+                (key, data, changedIds) -> {
+                    var start = System.nanoTime();
+                    var bytes = changedIds == null ? storage.save(key, data) : storage.save(key, data, changedIds);
+                    syncMetrics.get(key).recordSave(System.nanoTime() - start, bytes);
+                },
+                storage::evict);
+        locks = new DatasetLocks(config.getLockStripes());
+        tombstones = new Tombstones(config.getDataPath(), config.getRetention().getRemovedMaxAge());
+        parallelMergeThreshold = config.getParallelMergeThreshold();
+        maxBatchServices = config.getMaxBatchServices();
+        if (clusterLocks == null) {
+            clusterPoller = null;
+        } else {
+            clusterPoller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "cluster-poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            var pollInterval = config.getCluster().getPollInterval().toMillis();
+            clusterPoller.scheduleWithFixedDelay(this::pollSubscribedDatasets, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     public Map<String, SyncData> setData(String team, String opendataService, Map<String, SyncData> syncDataList) {
-        logger.info("setData");
-        var existingSyncDataList = getData(team, opendataService);
-        return merge(team, opendataService, existingSyncDataList, syncDataList);
+        var key = new DatasetKey(team, opendataService);
+        var lock = locks.get(key);
+        lock.lock();
+        try (var clusterLock = lockCluster(key)) {
+            var existingSyncDataList = cache.get(key);
+            var serverUpdateTime = nextServerUpdateTime(key);
+            var stats = newMergeStats(key);
+            var start = System.nanoTime();
+            dropRemovedEntries(existingSyncDataList, syncDataList, tombstones.get(key), stats);
+            var mergedSyncDataList = merge(existingSyncDataList, syncDataList, serverUpdateTime, stats, parallelMergeThreshold);
+            recordMerge("setData", key, start, stats);
+            put(key, mergedSyncDataList, serverUpdateTime, changedIds(existingSyncDataList, mergedSyncDataList), clusterLock);
+            // published under the lock so subscribers receive the changes in the merge order
+            changeNotifier.publish(key, existingSyncDataList, mergedSyncDataList);
+            return mergedSyncDataList;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private Path getPath(String team, String opendataService) {
-        return Path.of(config.getDataPath(), team, opendataService + ".json");
+    /**
+     * Same as {@link #setData(String, String, Map)} but the client entries are merged while they are parsed from the
+     * request body, neither the body nor the client dataset is materialized.
+     * The merged dataset shares the unchanged entries with the stored one so the request doesn't hold a second copy
+     * of the dataset.
+     * The body is read while holding the dataset lock, a slow client delays the other merges of the dataset.
+     *
+     * @param team            the team name
+     * @param opendataService the service name
+     * @param inputStream     the json dataset sent by the client
+     * @return the merged data
+     */
+    public Map<String, SyncData> setData(String team, String opendataService, InputStream inputStream) throws IOException {
+        var key = new DatasetKey(team, opendataService);
+        var lock = locks.get(key);
+        lock.lock();
+        try (var clusterLock = lockCluster(key); var parser = syncDataReader.createParser(inputStream)) {
+            var existingSyncDataList = cache.get(key);
+            var serverUpdateTime = nextServerUpdateTime(key);
+            var stats = newMergeStats(key);
+            var start = System.nanoTime();
+            var mergedSyncDataList = merge(existingSyncDataList, parser, syncDataReader, serverUpdateTime, stats, tombstones.get(key));
+            syncMetrics.get(key).getPayloadSize().record(parser.currentLocation().getByteOffset());
+            recordMerge("setData streaming", key, start, stats);
+            put(key, mergedSyncDataList, serverUpdateTime, changedIds(existingSyncDataList, mergedSyncDataList), clusterLock);
+            changeNotifier.publish(key, existingSyncDataList, mergedSyncDataList);
+            return mergedSyncDataList;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private Map<String, SyncData> getData(String team, String opendataService) {
-        var dataPath = getPath(team, opendataService);
-        logger.info("getData path={}", dataPath);
-        if (Files.exists(dataPath)) {
+    /**
+     * Merge the data of several services of a team in parallel.
+     * A failure of a service, including an invalid service name, is reported in its result and doesn't prevent the
+     * other services from being merged.
+     *
+     * @param team          the team name
+     * @param syncDataLists the data of each service
+     * @return the result of each service
+     * @throws BatchTooLargeException if there are more services than allowed in a batch
+     */
+    public Map<String, ServiceSyncResult> setData(String team, Map<String, Map<String, SyncData>> syncDataLists) {
+        logger.info("setData batch of {} services", syncDataLists.size());
+        if (syncDataLists.size() > maxBatchServices) {
+            throw new BatchTooLargeException("A batch is limited to " + maxBatchServices + " services");
+        }
+        var mdc = MDC.getCopyOfContextMap();
+        var results = new HashMap<String, ServiceSyncResult>();
+        var futures = new HashMap<String, CompletableFuture<Map<String, SyncData>>>();
+        syncDataLists.forEach((opendataService, syncDataList) -> {
+            if (!DatasetKey.isValidName(opendataService)) {
+                logger.warn("Invalid service name {}", opendataService);
+                results.put(opendataService, ServiceSyncResult.failure("Invalid service name"));
+                return;
+            }
+            futures.put(opendataService, CompletableFuture.supplyAsync(() -> {
+                if (mdc != null) {
+                    MDC.setContextMap(mdc);
+                }
+                MDC.put("service", opendataService);
+                try {
+                    return setData(team, opendataService, syncDataList);
+                } finally {
+                    MDC.clear();
+                }
+            }, batchExecutor));
+        });
+        futures.forEach((opendataService, future) -> {
             try {
-                var listType = objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class);
-                return objectMapper.readValue(dataPath.toFile(), listType);
-            } catch (IOException e) {
-                logger.error("Unable read data", e);
+                results.put(opendataService, ServiceSyncResult.success(future.join()));
+            } catch (CompletionException e) {
+                logger.error("Unable to sync {}", opendataService, e.getCause());
+                results.put(opendataService, ServiceSyncResult.failure(String.valueOf(e.getCause().getMessage())));
             }
+        });
+        return results;
+    }
+
+    /**
+     * Merge the entries modified by a client and returns the entries modified since the client watermark.
+     *
+     * @param team            the team name
+     * @param opendataService the service name
+     * @param request         the client changes
+     * @return the entries the client must update and the new watermark
+     */
+    public DeltaResponse sync(String team, String opendataService, DeltaRequest request) {
+        var key = new DatasetKey(team, opendataService);
+        var lock = locks.get(key);
+        lock.lock();
+        try (var clusterLock = lockCluster(key)) {
+            var existingSyncDataList = cache.get(key);
+            var serverUpdateTime = nextServerUpdateTime(key);
+            var stats = newMergeStats(key);
+            var start = System.nanoTime();
+            if (request.getChanges() != null) {
+                dropRemovedEntries(existingSyncDataList, request.getChanges(), tombstones.get(key), stats);
+            }
+            var result = mergeDelta(existingSyncDataList, request, serverUpdateTime, stats);
+            recordMerge("sync", key, start, stats);
+            put(key, result.mergedSyncDataList(), serverUpdateTime, result.changedIds(), clusterLock);
+            changeNotifier.publish(key, existingSyncDataList, result.mergedSyncDataList());
+            return result.response();
+        } finally {
+            lock.unlock();
         }
-        logger.info("Nothing to return for {}", opendataService);
-        return Collections.emptyMap();
     }
 
     /**
-     * Merge existing data with new data.
+     * Remove the expired entries of a dataset.
+     * The entries are filtered without holding the dataset lock, if the dataset is merged meanwhile nothing is removed
+     * and it will be compacted next time.
+     * The removed entries are remembered so a client that still has them doesn't add them back.
+     *
+     * @param key     the dataset key
+     * @param expired the entries to remove
+     * @return the removed entries
+     * @throws IOException if the removed entries cannot be remembered, nothing is removed in that case
+     */
+    public Map<String, SyncData> compact(DatasetKey key, Predicate<SyncData> expired) throws IOException {
+        var existingSyncDataList = cache.get(key);
+        var compactedSyncDataList = new HashMap<String, SyncData>();
+        var removedSyncDataList = new HashMap<String, SyncData>();
+        existingSyncDataList.forEach((id, syncData) -> (expired.test(syncData) ? removedSyncDataList : compactedSyncDataList).put(id, syncData));
+        if (removedSyncDataList.isEmpty()) {
+            return removedSyncDataList;
+        }
+        var lock = locks.get(key);
+        lock.lock();
+        try (var clusterLock = lockCluster(key)) {
+            if (cache.get(key) != existingSyncDataList) {
+                logger.info("{} was modified during the compaction", key);
+                return Map.of();
+            }
+            tombstones.add(key, removedSyncDataList);
+            put(key, compactedSyncDataList, 0, removedSyncDataList.keySet(), clusterLock);
+            return removedSyncDataList;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the serialized dataset with its entity tag.
+     * The serialized bytes are kept in memory until the dataset changes.
+     * In cluster mode the entity tag is built from the generation shared by the instances so it doesn't depend on the
+     * instance answering, the dataset lock is taken so the cached version matches the generation.
      *
      * @param team            the team name
      * @param opendataService the service name
-     * @param existingSyncDataList        the existing data
-     * @param newSyncDataList the new data
+     * @return the encoded dataset
+     */
+    public EncodedDataset getEncodedData(String team, String opendataService) throws IOException {
+        var key = new DatasetKey(team, opendataService);
+        if (clusterLocks == null) {
+            return cache.getEncoded(key, this::encode);
+        }
+        var lock = locks.get(key);
+        lock.lock();
+        try {
+            if (clusterLocks.isOutdated(key)) {
+                // reload the dataset saved by another instance, the lock makes sure it is not read while being saved
+                try (var clusterLock = lockCluster(key)) {
+                    cache.get(key);
+                }
+            }
+            var etag = "\"g" + clusterLocks.getGeneration(key) + '"';
+            return cache.getEncoded(key, (version, data) -> encode(version, data, etag));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Load a dataset in the cache and run the encoding, parsing and merge code on it without modifying it, so the
+     * first sync doesn't pay for the cold start.
+     *
+     * @param key the dataset key
+     * @return the number of entries
+     */
+    public int warmUp(DatasetKey key) throws IOException {
+        var syncDataList = cache.get(key);
+        var invalidEntries = syncDataList.values().stream()
+                .filter(syncData -> syncData == null || syncData.getStatus() == null)
+                .count();
+        if (invalidEntries > 0) {
+            logger.warn("{} has {} entries without status", key, invalidEntries);
+        }
+        var encodedDataset = cache.getEncoded(key, this::encode);
+        Map<String, SyncData> copy = reader.readValue(encodedDataset.json());
+        merge(syncDataList, copy, System.currentTimeMillis(), new MergeStats(), parallelMergeThreshold);
+        return syncDataList.size();
+    }
+
+    /**
+     * Returns the server update time of a merge, it is greater than the one of every previous merge of the dataset,
+     * even in the same millisecond or if the clock goes back, so a /sync client cannot miss a change whatever the
+     * endpoint that made it. Must be called with the dataset lock.
+     */
+    private long nextServerUpdateTime(DatasetKey key) {
+        return Math.max(System.currentTimeMillis(), cache.getWatermark(key) + 1);
+    }
+
+    /**
+     * Returns the stats of a merge, auditing the entries sent by the current user.
+     */
+    private MergeStats newMergeStats(DatasetKey key) {
+        return new MergeStats(auditLog.listener(key, MDC.get("user")));
+    }
+
+    /**
+     * Record the merge metrics and log a summary, the merged entries are in the audit log.
+     */
+    private void recordMerge(String operation, DatasetKey key, long start, MergeStats stats) {
+        var nanos = System.nanoTime() - start;
+        syncMetrics.get(key).recordMerge(nanos, stats);
+        logger.info("{} {} merged in {} ms ({})", operation, key, TimeUnit.NANOSECONDS.toMillis(nanos), stats);
+    }
+
+    /**
+     * In cluster mode, lock the dataset for the other instances and forget the cached version if another instance
+     * saved it. The subscribers of this instance receive the entries changed by the other instances.
+     * Must be called with the dataset lock.
+     *
+     * @return the lock or null if the cluster mode is disabled
+     */
+    private ClusterLocks.DatasetLock lockCluster(DatasetKey key) {
+        if (clusterLocks == null) {
+            return null;
+        }
+        var clusterLock = clusterLocks.lock(key);
+        if (clusterLock.isOutdated()) {
+            var outdatedSyncDataList = changeNotifier.hasSubscribers(key) ? cache.get(key) : null;
+            cache.invalidate(key);
+            tombstones.invalidate(key);
+            if (outdatedSyncDataList != null) {
+                changeNotifier.publish(key, outdatedSyncDataList, cache.get(key));
+            }
+        }
+        return clusterLock;
+    }
+
+    /**
+     * Reload the subscribed datasets saved by another instance so their subscribers receive the changes without
+     * waiting for a request on this instance. Reading them also keeps them in memory while they have subscribers.
+     */
+    private void pollSubscribedDatasets() {
+        for (var key : changeNotifier.getSubscribedDatasets()) {
+            var lock = locks.get(key);
+            lock.lock();
+            try {
+                cache.get(key);
+                if (clusterLocks.isOutdated(key)) {
+                    try (var clusterLock = lockCluster(key)) {
+                        logger.debug("Reloaded {} saved by another instance", key);
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.error("Unable to check {} for changes of the other instances", key, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param watermark  the server update time of the merge, or 0 if no entry was modified
+     * @param changedIds the ids of the entries added, modified or removed, the storage only writes them
+     */
+    private void put(DatasetKey key, Map<String, SyncData> syncDataList, long watermark, Set<String> changedIds,
+                     ClusterLocks.DatasetLock clusterLock) {
+        if (clusterLock == null) {
+            cache.put(key, syncDataList, watermark, changedIds);
+            return;
+        }
+        clusterLock.incrementGeneration();
+        try {
+            cache.put(key, syncDataList, watermark, changedIds);
+        } catch (UncheckedIOException e) {
+            // retrying later without the cluster lock could overwrite a newer save of another instance
+            cache.invalidate(key);
+            throw e;
+        }
+    }
+
+    private EncodedDataset encode(long version, Map<String, SyncData> data) throws IOException {
+        return encode(version, data, '"' + etagPrefix + '-' + version + '"');
+    }
+
+    private EncodedDataset encode(long version, Map<String, SyncData> data, String etag) throws IOException {
+        var json = writer.writeValueAsBytes(data);
+        var gzip = new ByteArrayOutputStream(json.length / 4);
+        try (var gzipOutputStream = new GZIPOutputStream(gzip)) {
+            gzipOutputStream.write(json);
+        }
+        return new EncodedDataset(version, etag, json, gzip.toByteArray());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (clusterPoller != null) {
+            clusterPoller.shutdownNow();
+        }
+        batchExecutor.close();
+        cache.close();
+    }
+
+    /**
+     * Merge existing data with new data.
+     *
+     * @param existingSyncDataList the existing data
+     * @param newSyncDataList      the new data
+     * @param serverUpdateTime     the update time of this merge
+     * @param stats                the number of entries per conflict rule
      * @return the merged data.
      */
-    private Map<String, SyncData> merge(String team, String opendataService, Map<String, SyncData> existingSyncDataList, Map<String, SyncData> newSyncDataList) {
-        logger.info("merge");
-        var serverUpdateTime = System.currentTimeMillis();
-        for (var entry : existingSyncDataList.entrySet()) {
-            var existingSyncData = entry.getValue();
+    static Map<String, SyncData> merge(Map<String, SyncData> existingSyncDataList, Map<String, SyncData> newSyncDataList,
+                                       long serverUpdateTime, MergeStats stats) {
+        return merge(existingSyncDataList, newSyncDataList, serverUpdateTime, stats, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Merge existing data with new data.
+     * If the new data has at least <code>parallelThreshold</code> entries, it is split in chunks merged in parallel
+     * with fork/join.
+     *
+     * @param existingSyncDataList the existing data
+     * @param newSyncDataList      the new data
+     * @param serverUpdateTime     the update time of this merge
+     * @param stats                the number of entries per conflict rule
+     * @param parallelThreshold    the minimum number of entries of a parallel merge
+     * @return the merged data.
+     */
+    static Map<String, SyncData> merge(Map<String, SyncData> existingSyncDataList, Map<String, SyncData> newSyncDataList,
+                                       long serverUpdateTime, MergeStats stats, int parallelThreshold) {
+        if (newSyncDataList.size() >= parallelThreshold) {
+            @SuppressWarnings("unchecked")
+            Map.Entry<String, SyncData>[] entries = newSyncDataList.entrySet().toArray(new Map.Entry[0]);
+            stats.add(ForkJoinPool.commonPool().invoke(new MergeTask(existingSyncDataList, entries, 0, entries.length, serverUpdateTime, stats.getListener())));
+        } else {
+            for (var entry : newSyncDataList.entrySet()) {
+                mergeClientEntry(existingSyncDataList, entry.getKey(), entry.getValue(), serverUpdateTime, stats);
+            }
+        }
+        return newSyncDataList;
+    }
+
+    /**
+     * Drop the entries unknown by the server that were removed by the retention compaction and that the client didn't
+     * modify since, so a client still having them doesn't add them back.
+     *
+     * @param existingSyncDataList the existing data
+     * @param newSyncDataList      the new data, the dropped entries are removed from it
+     * @param removedSyncDataList  the entries removed from the dataset
+     * @param stats                the number of entries per conflict rule
+     */
+    static void dropRemovedEntries(Map<String, SyncData> existingSyncDataList, Map<String, SyncData> newSyncDataList,
+                                   Map<String, Tombstones.Tombstone> removedSyncDataList, MergeStats stats) {
+        if (removedSyncDataList.isEmpty()) {
+            return;
+        }
+        newSyncDataList.entrySet().removeIf(entry -> {
             var id = entry.getKey();
-            var newSyncData = newSyncDataList.get(id);
-            if (newSyncData != null) {
-                if (newSyncData.isDirty()) {
-                    if (newSyncData.getServerUpdateTime() == existingSyncData.getServerUpdateTime()) {
-                        logger.info("{} dirty=true server time is identical, update time", id);
-                        newSyncData.setServerUpdateTime(serverUpdateTime);
-                        newSyncData.setLocalUpdateTime(serverUpdateTime);
-                    } else {
-                        // server version is more up to date but it is also modified by the client, use the greatest status
-                        if (newSyncData.getStatus().compareTo(existingSyncData.getStatus()) < 0) {
-                            logger.info("{} dirty=true server time is modified but server version is better ({} > {})", id, existingSyncData.getStatus(), newSyncData.getStatus());
-                            // server version is better
-                            newSyncData.setStatus(existingSyncData.getStatus());
-                            newSyncData.setServerUpdateTime(existingSyncData.getServerUpdateTime());
-                            newSyncData.setLocalUpdateTime(existingSyncData.getServerUpdateTime());
-                        } else {
-                            logger.info("{} dirty=true server time is modified but server version is lower ({} < {})", id, existingSyncData.getStatus(), newSyncData.getStatus());
-                            newSyncData.setServerUpdateTime(serverUpdateTime);
-                            newSyncData.setLocalUpdateTime(serverUpdateTime);
-                        }
-                    }
-                    newSyncData.setDirty(false);
+            if (!existingSyncDataList.containsKey(id) && Tombstones.isRemoved(removedSyncDataList, id, entry.getValue())) {
+                stats.record(id, null, entry.getValue(), MergeBranch.REMOVED);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Merge an entry sent by a client with the server version if there is one, and reset its dirty flag.
+     * The new entry is updated with the result of the merge.
+     *
+     * @param existingSyncDataList the existing data
+     * @param id                   the entry id
+     * @param newSyncData          the client version
+     * @param serverUpdateTime     the update time of this merge
+     * @param stats                the number of entries per conflict rule
+     */
+    static void mergeClientEntry(Map<String, SyncData> existingSyncDataList, String id, SyncData newSyncData, long serverUpdateTime,
+                                 MergeStats stats) {
+        var existingSyncData = existingSyncDataList.get(id);
+        if (existingSyncData == null) {
+            mergeNewEntry(newSyncData, serverUpdateTime);
+            stats.record(id, null, newSyncData, MergeBranch.NEW);
+        } else {
+            stats.record(id, existingSyncData, newSyncData, mergeEntry(existingSyncData, newSyncData, serverUpdateTime));
+        }
+    }
+
+    /**
+     * An entry unknown by the server keeps the client status and local update time like before the /sync endpoint.
+     * If it was never stored by a server (its server update time is 0) it gets the update time of the merge so the
+     * /sync clients receive it, an entry that already has a server update time keeps it.
+     */
+    private static void mergeNewEntry(SyncData newSyncData, long serverUpdateTime) {
+        if (newSyncData.getServerUpdateTime() == 0) {
+            newSyncData.setServerUpdateTime(serverUpdateTime);
+        }
+        newSyncData.setDirty(false);
+    }
+
+    /**
+     * Merge existing data with the data read from a json parser, one entry at a time.
+     * The entries that are identical to the existing ones are replaced by the existing instances so they can be
+     * garbage collected right away.
+     *
+     * @param existingSyncDataList the existing data
+     * @param parser               the parser positioned before the json object
+     * @param syncDataReader       the reader of a single entry
+     * @param serverUpdateTime     the update time of this merge
+     * @param stats                the number of entries per conflict rule
+     * @return the merged data.
+     */
+    static Map<String, SyncData> merge(Map<String, SyncData> existingSyncDataList, JsonParser parser, ObjectReader syncDataReader,
+                                       long serverUpdateTime, MergeStats stats) throws IOException {
+        return merge(existingSyncDataList, parser, syncDataReader, serverUpdateTime, stats, Map.of());
+    }
+
+    /**
+     * Same as {@link #merge(Map, JsonParser, ObjectReader, long, MergeStats)}, the entries removed by the retention
+     * compaction and not modified by the client since are dropped.
+     *
+     * @param existingSyncDataList the existing data
+     * @param parser               the parser positioned before the json object
+     * @param syncDataReader       the reader of a single entry
+     * @param serverUpdateTime     the update time of this merge
+     * @param stats                the number of entries per conflict rule
+     * @param removedSyncDataList  the entries removed from the dataset
+     * @return the merged data.
+     */
+    static Map<String, SyncData> merge(Map<String, SyncData> existingSyncDataList, JsonParser parser, ObjectReader syncDataReader,
+                                       long serverUpdateTime, MergeStats stats, Map<String, Tombstones.Tombstone> removedSyncDataList)
+            throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a json object");
+        }
+        var mergedSyncDataList = new HashMap<String, SyncData>(existingSyncDataList.size() * 4 / 3 + 1);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var id = parser.currentName();
+            parser.nextToken();
+            SyncData newSyncData = syncDataReader.readValue(parser);
+            var existingSyncData = existingSyncDataList.get(id);
+            if (existingSyncData == null) {
+                if (Tombstones.isRemoved(removedSyncDataList, id, newSyncData)) {
+                    stats.record(id, null, newSyncData, MergeBranch.REMOVED);
+                    continue;
+                }
+                mergeNewEntry(newSyncData, serverUpdateTime);
+                stats.record(id, null, newSyncData, MergeBranch.NEW);
+                mergedSyncDataList.put(id, newSyncData);
+            } else {
+                stats.record(id, existingSyncData, newSyncData, mergeEntry(existingSyncData, newSyncData, serverUpdateTime));
+                mergedSyncDataList.put(id, isSame(existingSyncData, newSyncData) ? existingSyncData : newSyncData);
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Expected an entry id");
+        }
+        return mergedSyncDataList;
+    }
+
+    /**
+     * Returns the ids of the entries of the existing data that a merge added, modified or removed.
+     *
+     * @param existingSyncDataList the existing data
+     * @param mergedSyncDataList   the merged data
+     * @return the changed ids
+     */
+    static Set<String> changedIds(Map<String, SyncData> existingSyncDataList, Map<String, SyncData> mergedSyncDataList) {
+        var changedIds = new HashSet<String>();
+        var keptEntries = 0;
+        for (var entry : mergedSyncDataList.entrySet()) {
+            var existingSyncData = existingSyncDataList.get(entry.getKey());
+            if (existingSyncData == null) {
+                changedIds.add(entry.getKey());
+            } else {
+                keptEntries++;
+                if (existingSyncData != entry.getValue() && !isSame(existingSyncData, entry.getValue())) {
+                    changedIds.add(entry.getKey());
+                }
+            }
+        }
+        if (keptEntries < existingSyncDataList.size()) {
+            for (var id : existingSyncDataList.keySet()) {
+                if (!mergedSyncDataList.containsKey(id)) {
+                    changedIds.add(id);
+                }
+            }
+        }
+        return changedIds;
+    }
+
+    private static boolean isSame(SyncData syncData1, SyncData syncData2) {
+        return syncData1.getServerUpdateTime() == syncData2.getServerUpdateTime() &&
+                syncData1.getLocalUpdateTime() == syncData2.getLocalUpdateTime() &&
+                syncData1.isDirty() == syncData2.isDirty() &&
+                Objects.equals(syncData1.getStatus(), syncData2.getStatus());
+    }
+
+    /**
+     * Merge an entry sent by a client with the server version.
+     * The new entry is updated with the result of the merge.
+     *
+     * @param existingSyncData the server version
+     * @param newSyncData      the client version
+     * @param serverUpdateTime the update time of this merge
+     * @return the applied conflict rule
+     */
+    private static MergeBranch mergeEntry(SyncData existingSyncData, SyncData newSyncData, long serverUpdateTime) {
+        if (newSyncData.isDirty()) {
+            MergeBranch branch;
+            if (newSyncData.getServerUpdateTime() == existingSyncData.getServerUpdateTime()) {
+                newSyncData.setServerUpdateTime(serverUpdateTime);
+                newSyncData.setLocalUpdateTime(serverUpdateTime);
+                branch = MergeBranch.CLIENT_UPDATE;
+            } else {
+                // server version is more up to date but it is also modified by the client, use the greatest status
+                if (newSyncData.getStatus().compareTo(existingSyncData.getStatus()) < 0) {
+                    // server version is better
+                    newSyncData.setStatus(existingSyncData.getStatus());
+                    newSyncData.setServerUpdateTime(existingSyncData.getServerUpdateTime());
+                    newSyncData.setLocalUpdateTime(existingSyncData.getServerUpdateTime());
+                    branch = MergeBranch.CONFLICT_SERVER_WINS;
                 } else {
-                    if (newSyncData.getServerUpdateTime() != existingSyncData.getServerUpdateTime()) {
-                        logger.info("{} dirty=false server time is different, copying server version", id);
-                        newSyncData.setServerUpdateTime(existingSyncData.getServerUpdateTime());
-                        newSyncData.setLocalUpdateTime(existingSyncData.getServerUpdateTime());
-                        newSyncData.setStatus(existingSyncData.getStatus());
-                    }
+                    newSyncData.setServerUpdateTime(serverUpdateTime);
+                    newSyncData.setLocalUpdateTime(serverUpdateTime);
+                    branch = MergeBranch.CONFLICT_CLIENT_WINS;
                 }
             }
+            newSyncData.setDirty(false);
+            return branch;
+        } else {
+            if (newSyncData.getServerUpdateTime() != existingSyncData.getServerUpdateTime()) {
+                newSyncData.setServerUpdateTime(existingSyncData.getServerUpdateTime());
+                newSyncData.setLocalUpdateTime(existingSyncData.getServerUpdateTime());
+                newSyncData.setStatus(existingSyncData.getStatus());
+                return MergeBranch.SERVER_UPDATE;
+            }
+            return MergeBranch.UNCHANGED;
         }
-        newSyncDataList.values().forEach(syncData -> syncData.setDirty(false));
-        save(team, opendataService, newSyncDataList);
-        return newSyncDataList;
     }
 
-    private void save(String team, String opendataService, Map<String, SyncData> roadworkData) {
-        var path = getPath(team, opendataService);
-        logger.info("save to {}", path);
-        try {
-            Files.createDirectories(path.getParent());
-            objectMapper.writeValue(path.toFile(), roadworkData);
-        } catch (IOException e) {
-            logger.error("Unable to save", e);
+    /**
+     * Merge the entries modified by a client into the existing data.
+     * Unlike {@link #merge(Map, Map, long, MergeStats)} the entries not sent by the client are kept.
+     *
+     * @param existingSyncDataList the existing data
+     * @param request              the client changes
+     * @param serverUpdateTime     the update time of this merge, greater than any watermark already returned to a client
+     * @param stats                the number of entries per conflict rule
+     * @return the entries the client must update
+     */
+    private static DeltaResult mergeDelta(Map<String, SyncData> existingSyncDataList, DeltaRequest request, long serverUpdateTime,
+                                          MergeStats stats) {
+        var mergedSyncDataList = new HashMap<>(existingSyncDataList);
+        var changes = new HashMap<String, SyncData>();
+        var changedIds = new HashSet<String>();
+        if (request.getChanges() != null) {
+            for (var entry : request.getChanges().entrySet()) {
+                var id = entry.getKey();
+                var newSyncData = entry.getValue();
+                var existingSyncData = existingSyncDataList.get(id);
+                if (existingSyncData == null) {
+                    mergeNewEntry(newSyncData, serverUpdateTime);
+                    stats.record(id, null, newSyncData, MergeBranch.NEW);
+                } else {
+                    stats.record(id, existingSyncData, newSyncData, mergeEntry(existingSyncData, newSyncData, serverUpdateTime));
+                }
+                newSyncData.setDirty(false);
+                if (existingSyncData == null || !isSame(existingSyncData, newSyncData)) {
+                    changedIds.add(id);
+                }
+                mergedSyncDataList.put(id, newSyncData);
+                changes.put(id, newSyncData);
+            }
         }
+        var watermark = request.getSince();
+        for (var entry : mergedSyncDataList.entrySet()) {
+            var syncData = entry.getValue();
+            if (syncData.getServerUpdateTime() > request.getSince()) {
+                changes.putIfAbsent(entry.getKey(), syncData);
+                watermark = Math.max(watermark, syncData.getServerUpdateTime());
+            }
+        }
+        return new DeltaResult(mergedSyncDataList, new DeltaResponse(watermark, changes), changedIds);
+    }
+
+    /**
+     * @param changedIds the ids of the entries the merge added or modified
+     */
+    private record DeltaResult(Map<String, SyncData> mergedSyncDataList, DeltaResponse response, Set<String> changedIds) {
     }
 }
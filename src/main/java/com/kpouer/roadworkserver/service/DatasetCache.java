@@ -0,0 +1,393 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.CompactDataset;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-memory cache of the datasets with write-behind persistence.
+ * A dataset put in the cache is written to disk by a background flusher, several merges of the same dataset
+ * happening before the next flush are written only once.
+ * The maps stored in the cache must not be modified after being put.
+ * With the compact option they are stored as {@link CompactDataset}.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+public class DatasetCache implements AutoCloseable {
+    private static final long DEFAULT_MAINTENANCE_PERIOD = TimeUnit.SECONDS.toMillis(10);
+
+    private final Config.Cache cacheConfig;
+    private final boolean writeThrough;
+    private final Loader loader;
+    private final Writer writer;
+    private final EvictionListener evictionListener;
+    private final Map<DatasetKey, CachedDataset> datasets = new ConcurrentHashMap<>();
+    /**
+     * Every loaded or updated dataset gets a new version from this sequence, so a version is never reused even if the
+     * dataset is evicted and loaded again.
+     */
+    private final AtomicLong versions = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param cacheConfig      the cache configuration
+     * @param writeThrough     if true, every put is written before returning even if the maximum staleness is not zero
+     * @param loader           the dataset loader
+     * @param writer           the dataset writer
+     * @param evictionListener called when a dataset is removed from the cache
+     */
+    public DatasetCache(Config.Cache cacheConfig, boolean writeThrough, Loader loader, Writer writer, EvictionListener evictionListener) {
+        this.cacheConfig = cacheConfig;
+        this.writeThrough = writeThrough || cacheConfig.getMaxStaleness().isZero();
+        this.loader = loader;
+        this.writer = writer;
+        this.evictionListener = evictionListener;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "dataset-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var maxStaleness = cacheConfig.getMaxStaleness().toMillis();
+        var period = maxStaleness > 0 ? maxStaleness : DEFAULT_MAINTENANCE_PERIOD;
+        scheduler.scheduleWithFixedDelay(this::maintenance, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the dataset, loading it if it is not in memory.
+     *
+     * @param key the dataset key
+     * @return the dataset, it must not be modified
+     */
+    public Map<String, SyncData> get(DatasetKey key) {
+        return getDataset(key).snapshot.data;
+    }
+
+    /**
+     * Returns the greatest server update time of the dataset, including the entries removed since it was loaded.
+     *
+     * @param key the dataset key
+     * @return the watermark
+     */
+    public long getWatermark(DatasetKey key) {
+        return getDataset(key).snapshot.watermark;
+    }
+
+    /**
+     * Returns the serialized form of a dataset, it is computed again only when the dataset changed.
+     *
+     * @param key     the dataset key
+     * @param encoder the encoder used if the dataset changed since it was last encoded
+     * @return the encoded dataset
+     */
+    public EncodedDataset getEncoded(DatasetKey key, Encoder encoder) throws IOException {
+        var dataset = getDataset(key);
+        var snapshot = dataset.snapshot;
+        var encoded = dataset.encoded;
+        if (encoded == null || encoded.version() != snapshot.version) {
+            encoded = encoder.encode(snapshot.version, snapshot.data);
+            // if a concurrent call stores an older version, it will just be encoded again
+            dataset.encoded = encoded;
+        }
+        return encoded;
+    }
+
+    private CachedDataset getDataset(DatasetKey key) {
+        var dataset = datasets.get(key);
+        if (dataset == null) {
+            // load outside of the map to avoid blocking other datasets during the I/O
+            var loaded = new CachedDataset(compact(loader.load(key)), versions.incrementAndGet());
+            dataset = datasets.putIfAbsent(key, loaded);
+            if (dataset == null) {
+                dataset = loaded;
+            }
+        }
+        dataset.lastAccess = System.currentTimeMillis();
+        return dataset;
+    }
+
+    /**
+     * Replace the dataset without changing its watermark.
+     *
+     * @see #put(DatasetKey, Map, long)
+     */
+    public void put(DatasetKey key, Map<String, SyncData> data) {
+        put(key, data, 0);
+    }
+
+    /**
+     * Replace the dataset, the whole dataset will be written.
+     *
+     * @see #put(DatasetKey, Map, long, Set)
+     */
+    public void put(DatasetKey key, Map<String, SyncData> data, long watermark) {
+        put(key, data, watermark, null);
+    }
+
+    /**
+     * Replace the dataset.
+     * It is written to disk later, or immediately in write-through mode. The changed ids of the puts made since the
+     * last write are accumulated so the writer only gets the entries that changed since then.
+     *
+     * @param key        the dataset key
+     * @param data       the new dataset, it must not be modified after this call
+     * @param watermark  the server update time of the merge that produced the dataset, the watermark of the dataset
+     *                   never decreases
+     * @param changedIds the ids of the entries added, modified or removed by this put, null if unknown
+     * @throws UncheckedIOException in write-through mode, if the dataset cannot be written. It stays in memory and
+     *                              the write will be retried later
+     */
+    public void put(DatasetKey key, Map<String, SyncData> data, long watermark, Set<String> changedIds) {
+        var storedData = compact(data);
+        var dataset = datasets.compute(key, (k, cachedDataset) -> {
+            long previousWatermark;
+            if (cachedDataset == null) {
+                cachedDataset = new CachedDataset();
+                previousWatermark = maxServerUpdateTime(data);
+            } else {
+                previousWatermark = cachedDataset.snapshot.watermark;
+            }
+            cachedDataset.update(storedData, versions.incrementAndGet(), Math.max(previousWatermark, watermark), changedIds);
+            return cachedDataset;
+        });
+        if (writeThrough) {
+            try {
+                write(key, dataset);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to save " + key, e);
+            }
+        }
+    }
+
+    private Map<String, SyncData> compact(Map<String, SyncData> data) {
+        return cacheConfig.isCompact() ? CompactDataset.of(data) : data;
+    }
+
+    /**
+     * Forget a dataset, it will be loaded again on its next access.
+     * Changes that were not written yet are lost, the background flusher will not write them.
+     *
+     * @param key the dataset key
+     */
+    public void invalidate(DatasetKey key) {
+        var dataset = datasets.remove(key);
+        if (dataset != null) {
+            dataset.flushLock.lock();
+            try {
+                dataset.discarded = true;
+            } finally {
+                dataset.flushLock.unlock();
+            }
+        }
+        evictionListener.evicted(key);
+    }
+
+    /**
+     * Write all modified datasets to disk.
+     */
+    public void flushAll() {
+        datasets.forEach(this::flush);
+    }
+
+    private void flush(DatasetKey key, CachedDataset dataset) {
+        try {
+            write(key, dataset);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to save {}, will retry later", key, e);
+        }
+    }
+
+    private void write(DatasetKey key, CachedDataset dataset) throws IOException {
+        dataset.flushLock.lock();
+        try {
+            var snapshot = dataset.snapshot;
+            if (dataset.discarded || snapshot.version == dataset.flushedVersion) {
+                return;
+            }
+            writer.write(key, snapshot.data, snapshot.changedIds);
+            dataset.flushedVersion = snapshot.version;
+        } finally {
+            dataset.flushLock.unlock();
+        }
+    }
+
+    private void maintenance() {
+        try {
+            flushAll();
+            evict();
+        } catch (RuntimeException e) {
+            logger.error("Cache maintenance failed", e);
+        }
+    }
+
+    private void evict() {
+        var idleLimit = System.currentTimeMillis() - cacheConfig.getIdleTimeout().toMillis();
+        datasets.forEach((key, dataset) -> {
+            if (dataset.lastAccess < idleLimit) {
+                evictIfClean(key);
+            }
+        });
+        var overflow = datasets.size() - cacheConfig.getMaxSize();
+        if (overflow > 0) {
+            var entries = new ArrayList<>(datasets.entrySet());
+            entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+            for (int i = 0; i < overflow; i++) {
+                evictIfClean(entries.get(i).getKey());
+            }
+        }
+    }
+
+    /**
+     * Evict a dataset if everything was written to disk.
+     * A dataset that is still dirty will be evicted after the next flush.
+     */
+    private void evictIfClean(DatasetKey key) {
+        if (datasets.computeIfPresent(key, (k, dataset) -> dataset.isDirty() ? dataset : null) == null) {
+            evictionListener.evicted(key);
+        }
+    }
+
+    /**
+     * Stop the background flusher and write every pending change to disk.
+     */
+    @Override
+    public void close() {
+        logger.info("Flushing dataset cache");
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Flusher did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        Map<String, SyncData> load(DatasetKey key);
+    }
+
+    @FunctionalInterface
+    public interface Writer {
+        /**
+         * @param changedIds the ids of the entries that changed since the previous write, null to write everything
+         */
+        void write(DatasetKey key, Map<String, SyncData> data, Set<String> changedIds) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface EvictionListener {
+        void evicted(DatasetKey key);
+    }
+
+    @FunctionalInterface
+    public interface Encoder {
+        EncodedDataset encode(long version, Map<String, SyncData> data) throws IOException;
+    }
+
+    private static long maxServerUpdateTime(Map<String, SyncData> data) {
+        var watermark = 0L;
+        for (var syncData : data.values()) {
+            watermark = Math.max(watermark, syncData.getServerUpdateTime());
+        }
+        return watermark;
+    }
+
+    /**
+     * @param changedIds the ids of the entries that changed since the last written version, null if the whole dataset
+     *                   must be written
+     */
+    private record Snapshot(long version, Map<String, SyncData> data, long watermark, Set<String> changedIds) {
+    }
+
+    private static class CachedDataset {
+        private final ReentrantLock flushLock = new ReentrantLock();
+        private volatile Snapshot snapshot;
+        private volatile long flushedVersion;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private volatile EncodedDataset encoded;
+        /**
+         * Set under the flush lock when the dataset is invalidated.
+         */
+        private boolean discarded;
+
+        /**
+         * Create a dataset that is not backed by the disk yet.
+         */
+        private CachedDataset() {
+        }
+
+        /**
+         * Create a dataset that is the same as the disk version.
+         */
+        private CachedDataset(Map<String, SyncData> data, long version) {
+            snapshot = new Snapshot(version, data, maxServerUpdateTime(data), Set.of());
+            flushedVersion = version;
+        }
+
+        /**
+         * Called in the map compute method so updates of the same dataset are atomic.
+         */
+        private void update(Map<String, SyncData> data, long version, long watermark, Set<String> changedIds) {
+            snapshot = new Snapshot(version, data, watermark, pendingChanges(changedIds));
+            lastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the ids changed since the last write, including the ones of this update. If a write is running it
+         * may write the previous ids again, which is harmless.
+         */
+        private Set<String> pendingChanges(Set<String> changedIds) {
+            var previous = snapshot;
+            if (changedIds == null || previous == null) {
+                return null;
+            }
+            if (previous.version == flushedVersion) {
+                return changedIds;
+            }
+            if (previous.changedIds == null) {
+                return null;
+            }
+            var pending = new HashSet<>(previous.changedIds);
+            pending.addAll(changedIds);
+            return pending;
+        }
+
+        private boolean isDirty() {
+            return snapshot.version != flushedVersion;
+        }
+    }
+}
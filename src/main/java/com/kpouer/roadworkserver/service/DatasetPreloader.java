@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.storage.DatasetStorage;
+import com.kpouer.roadworkserver.storage.StorageMigration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load the stored datasets in parallel at startup and exercise the read and merge code, so the first syncs after a
+ * restart don't pay for the disk reads and the JIT compilation.
+ * Until it is finished the <code>datasetPreloader</code> health indicator is out of service, it is part of the
+ * readiness group.
+ *
+ * @author Matthieu Casanova
+ */
+@Component
+@Slf4j
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class DatasetPreloader implements ApplicationRunner, HealthIndicator {
+    private final Config config;
+    private final DatasetStorage storage;
+    private final DataService dataService;
+    private final Timer warmupTimer;
+    private volatile boolean ready;
+    private volatile int preloadedDatasets;
+
+    public DatasetPreloader(Config config, DatasetStorage storage, DataService dataService, MeterRegistry registry) {
+        this.config = config;
+        this.storage = storage;
+        this.dataService = dataService;
+        ready = !config.getWarmup().isEnabled();
+        warmupTimer = Timer.builder("roadwork.startup.warmup")
+                .description("Time spent preloading the datasets at startup")
+                .register(registry);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (ready || args.containsOption(StorageMigration.MIGRATE_OPTION)) {
+            return;
+        }
+        var start = System.nanoTime();
+        var datasets = new ArrayList<>(storage.list());
+        var maxSize = config.getCache().getMaxSize();
+        if (datasets.size() > maxSize) {
+            logger.warn("{} datasets but the cache is limited to {}, only the first ones are preloaded", datasets.size(), maxSize);
+            datasets.subList(maxSize, datasets.size()).clear();
+        }
+        var parallelism = config.getWarmup().getParallelism();
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        logger.info("Preloading {} datasets with {} threads", datasets.size(), parallelism);
+        var entries = new AtomicInteger();
+        var failures = new AtomicInteger();
+        try (var executor = Executors.newFixedThreadPool(parallelism)) {
+            var futures = datasets.stream()
+                    .map(key -> CompletableFuture.runAsync(() -> {
+                        try {
+                            entries.addAndGet(dataService.warmUp(key));
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor).exceptionally(throwable -> {
+                        logger.error("Unable to preload {}", key, throwable);
+                        failures.incrementAndGet();
+                        return null;
+                    }))
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(futures).join();
+        }
+        var nanos = System.nanoTime() - start;
+        warmupTimer.record(nanos, TimeUnit.NANOSECONDS);
+        preloadedDatasets = datasets.size() - failures.get();
+        logger.info("{} datasets ({} entries) preloaded in {} ms, {} failures", preloadedDatasets, entries.get(),
+                TimeUnit.NANOSECONDS.toMillis(nanos), failures.get());
+        ready = true;
+    }
+
+    @Override
+    public Health health() {
+        if (!ready) {
+            return Health.outOfService().build();
+        }
+        return Health.up().withDetail("preloadedDatasets", preloadedDatasets).build();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+/**
+ * Serialized form of a version of a dataset, kept until the dataset changes.
+ *
+ * @param version the dataset version
+ * @param etag    the strong entity tag of the json bytes of that version
+ * @param json    the json bytes
+ * @param gzip    the gzip compressed json bytes
+ * @author Matthieu Casanova
+ */
+public record EncodedDataset(long version, String etag, byte[] json, byte[] gzip) {
+    private static final String GZIP_SUFFIX = "-gzip";
+
+    /**
+     * Returns the strong entity tag of the gzip bytes, a strong tag must differ between content codings.
+     */
+    public String gzipEtag() {
+        return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + '"';
+    }
+}
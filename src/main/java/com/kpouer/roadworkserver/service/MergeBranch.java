@@ -0,0 +1,52 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+/**
+ * The conflict rule applied to an entry during a merge.
+ *
+ * @author Matthieu Casanova
+ */
+public enum MergeBranch {
+    /**
+     * The entry is not known by the server.
+     */
+    NEW,
+    /**
+     * The client modified the entry and the server version didn't change since its last sync.
+     */
+    CLIENT_UPDATE,
+    /**
+     * Both the client and the server modified the entry, the server status is kept.
+     */
+    CONFLICT_SERVER_WINS,
+    /**
+     * Both the client and the server modified the entry, the client status is kept.
+     */
+    CONFLICT_CLIENT_WINS,
+    /**
+     * The client didn't modify the entry but the server version changed, it is copied.
+     */
+    SERVER_UPDATE,
+    /**
+     * Nobody modified the entry.
+     */
+    UNCHANGED,
+    /**
+     * The entry was removed by the retention compaction and the client didn't modify it since, it is dropped.
+     */
+    REMOVED
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+
+/**
+ * Notified of every merged entry.
+ * It is called by the merging threads, in parallel for the large datasets.
+ *
+ * @author Matthieu Casanova
+ */
+@FunctionalInterface
+public interface MergeListener {
+    /**
+     * @param id               the entry id
+     * @param existingSyncData the server version before the merge, null for a new entry
+     * @param mergedSyncData   the merged version
+     * @param branch           the applied conflict rule
+     */
+    void merged(String id, SyncData existingSyncData, SyncData mergedSyncData, MergeBranch branch);
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+
+/**
+ * Number of entries per {@link MergeBranch} during a merge.
+ * Every merged entry is also passed to the listener if there is one.
+ * It is not thread safe.
+ *
+ * @author Matthieu Casanova
+ */
+public class MergeStats {
+    private static final MergeBranch[] BRANCHES = MergeBranch.values();
+
+    private final int[] counts = new int[BRANCHES.length];
+    private final MergeListener listener;
+
+    public MergeStats() {
+        this(null);
+    }
+
+    /**
+     * @param listener the listener notified of every merged entry, it may be null
+     */
+    public MergeStats(MergeListener listener) {
+        this.listener = listener;
+    }
+
+    MergeListener getListener() {
+        return listener;
+    }
+
+    void record(String id, SyncData existingSyncData, SyncData mergedSyncData, MergeBranch branch) {
+        counts[branch.ordinal()]++;
+        if (listener != null) {
+            listener.merged(id, existingSyncData, mergedSyncData, branch);
+        }
+    }
+
+    void add(MergeStats stats) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += stats.counts[i];
+        }
+    }
+
+    public int get(MergeBranch branch) {
+        return counts[branch.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder();
+        for (var branch : BRANCHES) {
+            if (!builder.isEmpty()) {
+                builder.append(", ");
+            }
+            builder.append(branch).append('=').append(counts[branch.ordinal()]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Merge a range of the client entries, splitting it until the chunks are small enough.
+ * Each chunk counts its own conflict rules, the counts are summed when the chunks are joined.
+ *
+ * @author Matthieu Casanova
+ */
+class MergeTask extends RecursiveTask<MergeStats> {
+    private static final int CHUNK_SIZE = 4096;
+
+    private final Map<String, SyncData> existingSyncDataList;
+    private final Map.Entry<String, SyncData>[] entries;
+    private final int from;
+    private final int to;
+    private final long serverUpdateTime;
+    private final MergeListener listener;
+
+    MergeTask(Map<String, SyncData> existingSyncDataList, Map.Entry<String, SyncData>[] entries, int from, int to, long serverUpdateTime,
+              MergeListener listener) {
+        this.existingSyncDataList = existingSyncDataList;
+        this.entries = entries;
+        this.from = from;
+        this.to = to;
+        this.serverUpdateTime = serverUpdateTime;
+        this.listener = listener;
+    }
+
+    @Override
+    protected MergeStats compute() {
+        if (to - from <= CHUNK_SIZE) {
+            var stats = new MergeStats(listener);
+            for (int i = from; i < to; i++) {
+                var entry = entries[i];
+                DataService.mergeClientEntry(existingSyncDataList, entry.getKey(), entry.getValue(), serverUpdateTime, stats);
+            }
+            return stats;
+        }
+        var middle = (from + to) >>> 1;
+        var left = new MergeTask(existingSyncDataList, entries, from, middle, serverUpdateTime, listener);
+        left.fork();
+        var stats = new MergeTask(existingSyncDataList, entries, middle, to, serverUpdateTime, listener).compute();
+        stats.add(left.join());
+        return stats;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.storage.DatasetStorage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically removes the entries of the roadworks that are over for a long time, see {@link Config.Retention}.
+ *
+ * @author Matthieu Casanova
+ */
+@Component
+@Slf4j
+public class RetentionCompactor {
+    private final Config.Retention retention;
+    private final DatasetStorage storage;
+    private final DataService dataService;
+    private final SyncMetrics syncMetrics;
+    private final ObjectWriter writer = new ObjectMapper().writer();
+    private final ScheduledExecutorService scheduler;
+
+    public RetentionCompactor(Config config, DatasetStorage storage, DataService dataService, SyncMetrics syncMetrics) {
+        retention = config.getRetention();
+        this.storage = storage;
+        this.dataService = dataService;
+        this.syncMetrics = syncMetrics;
+        if (retention.getMaxAge().isZero()) {
+            scheduler = null;
+            return;
+        }
+        logger.info("Removing the {} entries older than {}", retention.getFinalStatuses(), retention.getMaxAge());
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "retention-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var interval = retention.getInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::compactAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Apply the retention policy to every stored dataset.
+     */
+    public void compactAll() {
+        var limit = System.currentTimeMillis() - retention.getMaxAge().toMillis();
+        var finalStatuses = retention.getFinalStatuses();
+        try {
+            for (var key : storage.list()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                try {
+                    var removed = dataService.compact(key, syncData -> syncData.getServerUpdateTime() < limit && finalStatuses.contains(syncData.getStatus()));
+                    if (!removed.isEmpty()) {
+                        var bytes = writer.writeValueAsBytes(removed).length;
+                        logger.info("{} compacted, {} entries removed, about {} bytes reclaimed", key, removed.size(), bytes);
+                        syncMetrics.get(key).recordCompaction(removed.size(), bytes);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Unable to compact {}", key, e);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to list the datasets", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadworkserver.model.DatasetKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the sync pipeline, tagged by team and service.
+ * The meters of a dataset are registered once and reused so recording a value doesn't allocate.
+ *
+ * @author Matthieu Casanova
+ */
+@Component
+@RequiredArgsConstructor
+public class SyncMetrics {
+    private final MeterRegistry registry;
+    private final Map<DatasetKey, DatasetMeters> meters = new ConcurrentHashMap<>();
+
+    public DatasetMeters get(DatasetKey key) {
+        var datasetMeters = meters.get(key);
+        if (datasetMeters == null) {
+            datasetMeters = meters.computeIfAbsent(key, k -> new DatasetMeters(registry, k));
+        }
+        return datasetMeters;
+    }
+
+    @Getter
+    public static class DatasetMeters {
+        private static final MergeBranch[] BRANCHES = MergeBranch.values();
+
+        private final Timer parse;
+        private final DistributionSummary payloadSize;
+        private final Timer load;
+        private final Timer merge;
+        private final Timer save;
+        private final DistributionSummary savedBytes;
+        private final Counter[] mergedEntries;
+        private final Counter removedEntries;
+        private final Counter reclaimedBytes;
+
+        private DatasetMeters(MeterRegistry registry, DatasetKey key) {
+            var tags = Tags.of("team", key.team(), "service", key.service());
+            parse = Timer.builder("roadwork.sync.parse")
+                    .description("Time spent parsing the request body")
+                    .tags(tags)
+                    .register(registry);
+            payloadSize = DistributionSummary.builder("roadwork.sync.payload")
+                    .description("Size of the request body")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+            load = Timer.builder("roadwork.dataset.load")
+                    .description("Time spent loading a dataset from the storage")
+                    .tags(tags)
+                    .register(registry);
+            merge = Timer.builder("roadwork.sync.merge")
+                    .description("Time spent merging the client data")
+                    .tags(tags)
+                    .register(registry);
+            save = Timer.builder("roadwork.dataset.save")
+                    .description("Time spent saving a dataset to the storage")
+                    .tags(tags)
+                    .register(registry);
+            savedBytes = DistributionSummary.builder("roadwork.dataset.saved")
+                    .description("Bytes written when saving a dataset")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+            mergedEntries = new Counter[BRANCHES.length];
+            for (var branch : BRANCHES) {
+                mergedEntries[branch.ordinal()] = Counter.builder("roadwork.sync.entries")
+                        .description("Number of merged entries per conflict rule")
+                        .tags(tags)
+                        .tag("branch", branch.name())
+                        .register(registry);
+            }
+            removedEntries = Counter.builder("roadwork.retention.entries")
+                    .description("Number of entries removed by the retention policy")
+                    .tags(tags)
+                    .register(registry);
+            reclaimedBytes = Counter.builder("roadwork.retention.bytes")
+                    .description("Estimated size of the entries removed by the retention policy")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        public void recordMerge(long nanos, MergeStats stats) {
+            merge.record(nanos, TimeUnit.NANOSECONDS);
+            for (var branch : BRANCHES) {
+                var count = stats.get(branch);
+                if (count > 0) {
+                    mergedEntries[branch.ordinal()].increment(count);
+                }
+            }
+        }
+
+        public void recordSave(long nanos, long bytes) {
+            save.record(nanos, TimeUnit.NANOSECONDS);
+            savedBytes.record(bytes);
+        }
+
+        public void recordCompaction(int entries, long bytes) {
+            removedEntries.increment(entries);
+            reclaimedBytes.increment(bytes);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The entries removed by the retention compaction, so a client still sending an entry it didn't know was removed
+ * doesn't add it back.
+ * Each dataset has a file <code>dataPath/team/service.removed</code> rewritten by the compaction, a removed entry is
+ * remembered for a limited time.
+ * The calls for a dataset must be serialized by the caller.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+class Tombstones {
+    private static final String EXTENSION = ".removed";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final String dataPath;
+    private final Duration maxAge;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final Map<DatasetKey, Map<String, Tombstone>> tombstones = new ConcurrentHashMap<>();
+
+    /**
+     * @param dataPath the data folder
+     * @param maxAge   how long a removed entry is remembered
+     */
+    Tombstones(String dataPath, Duration maxAge) {
+        this.dataPath = dataPath;
+        this.maxAge = maxAge;
+        var objectMapper = new ObjectMapper();
+        var mapType = objectMapper.getTypeFactory().constructMapType(Map.class, String.class, Tombstone.class);
+        reader = objectMapper.readerFor(mapType);
+        writer = objectMapper.writerFor(mapType);
+    }
+
+    /**
+     * Returns the removed entries of a dataset.
+     *
+     * @param key the dataset key
+     * @return the removed entries by id, it must not be modified
+     */
+    Map<String, Tombstone> get(DatasetKey key) {
+        return tombstones.computeIfAbsent(key, this::load);
+    }
+
+    /**
+     * Remember the entries removed from a dataset and forget the ones removed for too long.
+     *
+     * @param key     the dataset key
+     * @param removed the removed entries
+     * @throws IOException if the file cannot be written
+     */
+    void add(DatasetKey key, Map<String, SyncData> removed) throws IOException {
+        var now = System.currentTimeMillis();
+        var limit = now - maxAge.toMillis();
+        var updated = new HashMap<String, Tombstone>();
+        get(key).forEach((id, tombstone) -> {
+            if (tombstone.removedTime() >= limit) {
+                updated.put(id, tombstone);
+            }
+        });
+        removed.forEach((id, syncData) -> updated.put(id, new Tombstone(syncData.getLocalUpdateTime(), now)));
+        var path = getPath(key);
+        var temporaryFile = path.resolveSibling(path.getFileName() + TEMPORARY_EXTENSION);
+        Files.createDirectories(path.getParent());
+        writer.writeValue(temporaryFile.toFile(), updated);
+        Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        tombstones.put(key, Collections.unmodifiableMap(updated));
+    }
+
+    /**
+     * Forget the removed entries of a dataset read by this instance, in cluster mode another instance may have
+     * compacted it.
+     *
+     * @param key the dataset key
+     */
+    void invalidate(DatasetKey key) {
+        tombstones.remove(key);
+    }
+
+    /**
+     * Returns true if an entry unknown by the server was removed and the client didn't modify it since.
+     *
+     * @param tombstones  the removed entries of the dataset
+     * @param id          the entry id
+     * @param newSyncData the client version
+     */
+    static boolean isRemoved(Map<String, Tombstone> tombstones, String id, SyncData newSyncData) {
+        var tombstone = tombstones.get(id);
+        return tombstone != null && newSyncData.getLocalUpdateTime() <= tombstone.localUpdateTime();
+    }
+
+    private Map<String, Tombstone> load(DatasetKey key) {
+        var path = getPath(key);
+        if (Files.exists(path)) {
+            try {
+                Map<String, Tombstone> removed = reader.readValue(path.toFile());
+                return Collections.unmodifiableMap(removed);
+            } catch (IOException e) {
+                logger.error("Unable to read the removed entries of {}", key, e);
+            }
+        }
+        return Map.of();
+    }
+
+    private Path getPath(DatasetKey key) {
+        return Path.of(dataPath, key.team(), key.service() + EXTENSION);
+    }
+
+    /**
+     * @param localUpdateTime the local update time of the entry when it was removed
+     * @param removedTime     the time of the removal
+     */
+    record Tombstone(long localUpdateTime, long removedTime) {
+    }
+}
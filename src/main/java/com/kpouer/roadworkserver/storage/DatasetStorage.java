@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.storage;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.model.DatasetKey;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistence of the datasets.
+ * The calls for a given dataset are serialized by the caller.
+ *
+ * @author Matthieu Casanova
+ */
+public interface DatasetStorage extends AutoCloseable {
+    /**
+     * Load a dataset.
+     *
+     * @param key the dataset key
+     * @return the dataset, empty if it doesn't exist
+     */
+    Map<String, SyncData> load(DatasetKey key);
+
+    /**
+     * Save a dataset, replacing the previous version.
+     *
+     * @param key  the dataset key
+     * @param data the dataset, it must not be modified after this call
+     * @return the number of bytes written
+     * @throws IOException if the dataset cannot be written
+     */
+    long save(DatasetKey key, Map<String, SyncData> data) throws IOException;
+
+    /**
+     * Save a dataset of which only some entries were added, modified or removed since the previous save.
+     * A storage keeping an entry per record can write only those.
+     *
+     * @param key        the dataset key
+     * @param data       the dataset, it must not be modified after this call
+     * @param changedIds the ids of the entries that changed since the previous save, including the removed ones
+     * @return the number of bytes written
+     * @throws IOException if the dataset cannot be written
+     */
+    default long save(DatasetKey key, Map<String, SyncData> data, Set<String> changedIds) throws IOException {
+        return save(key, data);
+    }
+
+    /**
+     * Returns an entry of a dataset.
+     *
+     * @param key the dataset key
+     * @param id  the entry id
+     * @return the entry or null if it doesn't exist
+     */
+    default SyncData get(DatasetKey key, String id) {
+        return load(key).get(id);
+    }
+
+    /**
+     * Add or replace an entry of a dataset.
+     *
+     * @param key      the dataset key
+     * @param id       the entry id
+     * @param syncData the entry
+     * @throws IOException if the entry cannot be written
+     */
+    default void put(DatasetKey key, String id, SyncData syncData) throws IOException {
+        var data = new HashMap<>(load(key));
+        data.put(id, syncData);
+        save(key, data, Set.of(id));
+    }
+
+    /**
+     * Returns the entries of a dataset modified after a given time.
+     *
+     * @param key   the dataset key
+     * @param since the server update time
+     * @return the entries whose server update time is greater than since
+     */
+    default Map<String, SyncData> scanSince(DatasetKey key, long since) {
+        var result = new HashMap<String, SyncData>();
+        load(key).forEach((id, syncData) -> {
+            if (syncData.getServerUpdateTime() > since) {
+                result.put(id, syncData);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Called once the caller doesn't hold the dataset in memory anymore, a storage keeping a state per dataset can
+     * release it.
+     *
+     * @param key the dataset key
+     */
+    default void evict(DatasetKey key) {
+    }
+
+    /**
+     * Returns all stored datasets.
+     *
+     * @return the dataset keys
+     * @throws IOException if the datasets cannot be listed
+     */
+    Collection<DatasetKey> list() throws IOException;
+
+    @Override
+    default void close() {
+    }
+}
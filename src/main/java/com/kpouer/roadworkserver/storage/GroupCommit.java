@@ -0,0 +1,175 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publish durable files in batches.
+ * The callers write and fsync their temporary file concurrently, then wait while a single thread renames every file
+ * received during the commit window and fsyncs each of their directories once.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+class GroupCommit implements AutoCloseable {
+    private final long windowNanos;
+    private final BlockingQueue<PendingFile> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    /**
+     * Taken to check {@link #running} and queue a file, so no file is queued once {@link #close()} stopped the thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean running = true;
+
+    GroupCommit(Duration window) {
+        windowNanos = window.toNanos();
+        thread = new Thread(this::run, "group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Rename a temporary file to its target and wait until the rename is durable.
+     *
+     * @param temporaryFile the file, already written and synced
+     * @param target        the final path
+     * @throws IOException if the file cannot be renamed or the directory synced
+     */
+    void commit(Path temporaryFile, Path target) throws IOException {
+        var pendingFile = new PendingFile(temporaryFile, target, new CompletableFuture<>());
+        lock.lock();
+        try {
+            if (!running) {
+                throw new IOException("Group commit is closed");
+            }
+            queue.add(pendingFile);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            pendingFile.done().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the group commit");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<PendingFile>();
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                var deadline = System.nanoTime() + windowNanos;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    var next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch);
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void commit(List<PendingFile> batch) {
+        logger.debug("Committing {} files", batch.size());
+        var directories = new HashSet<Path>();
+        var renamed = new ArrayList<PendingFile>(batch.size());
+        for (var pendingFile : batch) {
+            try {
+                Files.move(pendingFile.temporaryFile(), pendingFile.target(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                directories.add(pendingFile.target().getParent());
+                renamed.add(pendingFile);
+            } catch (IOException | RuntimeException e) {
+                pendingFile.done().completeExceptionally(e);
+            }
+        }
+        directories.forEach(GroupCommit::syncDirectory);
+        renamed.forEach(pendingFile -> pendingFile.done().complete(null));
+    }
+
+    /**
+     * Make a rename durable, some platforms cannot open a directory so it is best effort.
+     */
+    static void syncDirectory(Path directory) {
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Unable to sync directory {}", directory, e);
+        }
+    }
+
+    /**
+     * Stop accepting files and commit the pending ones.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingFile pendingFile;
+        while ((pendingFile = queue.poll()) != null) {
+            pendingFile.done().completeExceptionally(new IOException("Group commit is closed"));
+        }
+    }
+
+    private record PendingFile(Path temporaryFile, Path target, CompletableFuture<Void> done) {
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.util.DatasetLocks;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage keeping for each dataset a json snapshot and an append-only journal of the modified entries.
+ * A save only appends the entries that changed since the previous save, the journal is compacted into a new snapshot
+ * in the background once it reaches a size threshold.
+ * The snapshot has the same format as the json storage so switching from a mode to the other keeps the data.
+ * Unless the durability is {@link Config.Durability#NONE}, the appends and the new snapshots are synced to disk.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+public class JournalStorage implements DatasetStorage {
+    private static final String SNAPSHOT_EXTENSION = JsonFileStorage.EXTENSION;
+    private static final String JOURNAL_EXTENSION = ".journal";
+
+    private final String dataPath;
+    private final long compactionThreshold;
+    private final ObjectReader snapshotReader;
+    private final ObjectWriter snapshotWriter;
+    private final ObjectReader recordReader;
+    private final ObjectWriter recordWriter;
+    private final Config.Durability durability;
+    /**
+     * Serialize the saves and compactions of a dataset.
+     */
+    private final DatasetLocks locks = new DatasetLocks(64);
+    /**
+     * The last saved version of each dataset held in memory by the caller, the journal records are computed against
+     * it. It is read again from the disk once the dataset is evicted.
+     */
+    private final Map<DatasetKey, Map<String, SyncData>> savedDatasets = new ConcurrentHashMap<>();
+    private final Set<DatasetKey> pendingCompactions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService compactionExecutor;
+
+    public JournalStorage(String dataPath, long compactionThreshold, ObjectMapper objectMapper) {
+        this(dataPath, compactionThreshold, objectMapper, Config.Durability.NONE);
+    }
+
+    /**
+     * @param dataPath            the data folder
+     * @param compactionThreshold the size of a journal triggering its compaction
+     * @param objectMapper        the object mapper
+     * @param durability          how the saves are made durable, {@link Config.Durability#GROUP} syncs every append
+     *                            like {@link Config.Durability#FSYNC} since an append is a single small write
+     */
+    public JournalStorage(String dataPath, long compactionThreshold, ObjectMapper objectMapper, Config.Durability durability) {
+        this.dataPath = dataPath;
+        this.compactionThreshold = compactionThreshold;
+        this.durability = durability;
+        var mapType = objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class);
+        snapshotReader = objectMapper.readerFor(mapType);
+        snapshotWriter = objectMapper.writerFor(mapType).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        recordReader = objectMapper.readerFor(JournalRecord.class);
+        recordWriter = objectMapper.writerFor(JournalRecord.class);
+        compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "journal-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Load a dataset by reading the snapshot and replaying the journal.
+     *
+     * @param key the dataset key
+     * @return the dataset
+     */
+    @Override
+    public Map<String, SyncData> load(DatasetKey key) {
+        var lock = locks.get(key);
+        lock.lock();
+        try {
+            var data = read(key);
+            savedDatasets.put(key, data);
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append the entries that changed since the previous save to the journal.
+     *
+     * @param key  the dataset key
+     * @param data the dataset, it must not be modified after this call
+     * @return the number of bytes written
+     */
+    @Override
+    public long save(DatasetKey key, Map<String, SyncData> data) throws IOException {
+        var lock = locks.get(key);
+        lock.lock();
+        try {
+            var previous = savedDatasets.get(key);
+            if (previous == null) {
+                previous = read(key);
+            }
+            var records = new ByteArrayOutputStream();
+            for (var entry : data.entrySet()) {
+                var previousSyncData = previous.get(entry.getKey());
+                if (!isSame(previousSyncData, entry.getValue())) {
+                    writeRecord(records, new JournalRecord(entry.getKey(), entry.getValue()));
+                }
+            }
+            for (var id : previous.keySet()) {
+                if (!data.containsKey(id)) {
+                    writeRecord(records, new JournalRecord(id, null));
+                }
+            }
+            var journalPath = getJournalPath(key);
+            if (records.size() > 0) {
+                Files.createDirectories(journalPath.getParent());
+                try (var channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    var buffer = ByteBuffer.wrap(records.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    if (durability != Config.Durability.NONE) {
+                        channel.force(false);
+                    }
+                } catch (IOException e) {
+                    // the journal may end with a partial record, reading it again truncates it
+                    savedDatasets.remove(key);
+                    throw e;
+                }
+            }
+            savedDatasets.put(key, data);
+            if (records.size() > 0 && Files.size(journalPath) >= compactionThreshold && pendingCompactions.add(key)) {
+                compactionExecutor.execute(() -> compact(key));
+            }
+            return records.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forget the last saved version of an evicted dataset.
+     */
+    @Override
+    public void evict(DatasetKey key) {
+        var lock = locks.get(key);
+        lock.lock();
+        try {
+            savedDatasets.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeRecord(ByteArrayOutputStream outputStream, JournalRecord journalRecord) throws IOException {
+        outputStream.write(recordWriter.writeValueAsBytes(journalRecord));
+        outputStream.write('\n');
+    }
+
+    /**
+     * Write the last saved version of a dataset as the new snapshot and delete the journal.
+     * The snapshot is written to a temporary file, synced and renamed so a crash cannot leave a truncated snapshot,
+     * the journal is only deleted once the rename is durable.
+     */
+    private void compact(DatasetKey key) {
+        pendingCompactions.remove(key);
+        var lock = locks.get(key);
+        lock.lock();
+        try {
+            var data = savedDatasets.get(key);
+            if (data == null) {
+                data = read(key);
+            }
+            var snapshotPath = getSnapshotPath(key);
+            var tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            try (var channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                var outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+                snapshotWriter.writeValue(outputStream, data);
+                outputStream.flush();
+                channel.force(false);
+            }
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            GroupCommit.syncDirectory(snapshotPath.getParent());
+            // replaying the journal on the new snapshot would give the same result so a crash here is harmless
+            Files.deleteIfExists(getJournalPath(key));
+            logger.info("Compacted journal of {}", key);
+        } catch (IOException e) {
+            logger.error("Unable to compact {}", key, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<String, SyncData> read(DatasetKey key) {
+        var data = new HashMap<String, SyncData>();
+        var snapshotPath = getSnapshotPath(key);
+        try {
+            if (Files.exists(snapshotPath)) {
+                data.putAll(snapshotReader.<Map<String, SyncData>>readValue(snapshotPath.toFile()));
+            }
+        } catch (IOException e) {
+            logger.error("Unable read snapshot of {}", key, e);
+            return Collections.emptyMap();
+        }
+        var journalPath = getJournalPath(key);
+        if (Files.exists(journalPath)) {
+            try {
+                var journal = Files.readAllBytes(journalPath);
+                var end = lastLineEnd(journal);
+                if (end < journal.length) {
+                    // a crash during an append leaves a partial last record, it is removed so the next append doesn't
+                    // continue its line
+                    logger.warn("Truncating the partial last record of the journal of {}", key);
+                    try (var channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                        channel.truncate(end);
+                    }
+                }
+                var start = 0;
+                while (start < end) {
+                    var lineEnd = start;
+                    while (journal[lineEnd] != '\n') {
+                        lineEnd++;
+                    }
+                    if (lineEnd > start) {
+                        replay(key, data, journal, start, lineEnd - start);
+                    }
+                    start = lineEnd + 1;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Unable read journal of {}", key, e);
+            }
+        }
+        return data;
+    }
+
+    private void replay(DatasetKey key, Map<String, SyncData> data, byte[] journal, int offset, int length) {
+        JournalRecord journalRecord;
+        try {
+            journalRecord = recordReader.readValue(journal, offset, length);
+        } catch (IOException e) {
+            logger.warn("Ignoring invalid journal record of {}", key);
+            return;
+        }
+        if (journalRecord.data() == null) {
+            data.remove(journalRecord.id());
+        } else {
+            data.put(journalRecord.id(), journalRecord.data());
+        }
+    }
+
+    /**
+     * Returns the length of the journal up to its last complete record.
+     */
+    private static int lastLineEnd(byte[] journal) {
+        for (int i = journal.length - 1; i >= 0; i--) {
+            if (journal[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public Collection<DatasetKey> list() throws IOException {
+        return JsonFileStorage.listDatasets(Path.of(dataPath), SNAPSHOT_EXTENSION, JOURNAL_EXTENSION);
+    }
+
+    private static boolean isSame(SyncData previous, SyncData current) {
+        return previous != null &&
+                previous.getServerUpdateTime() == current.getServerUpdateTime() &&
+                previous.getLocalUpdateTime() == current.getLocalUpdateTime() &&
+                previous.isDirty() == current.isDirty() &&
+                Objects.equals(previous.getStatus(), current.getStatus());
+    }
+
+    private Path getSnapshotPath(DatasetKey key) {
+        return Path.of(dataPath, key.team(), key.service() + SNAPSHOT_EXTENSION);
+    }
+
+    private Path getJournalPath(DatasetKey key) {
+        return Path.of(dataPath, key.team(), key.service() + JOURNAL_EXTENSION);
+    }
+
+    /**
+     * Wait for the running compactions.
+     */
+    @Override
+    public void close() {
+        compactionExecutor.shutdown();
+        try {
+            if (!compactionExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Journal compaction did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A journal line, a null data means the entry was removed.
+     */
+    record JournalRecord(String id, SyncData data) {
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Default storage, each dataset is a json file <code>dataPath/team/service.json</code> rewritten on every save.
+ * The file can also use a binary json format like Smile or CBOR, depending on the object mapper. In that case a json
+ * file left by a previous configuration is still read and removed once the dataset is saved in the new format.
+ * Unless the durability is {@link Config.Durability#NONE}, the file is written to a temporary file, synced and
+ * atomically renamed, so a crash leaves either the previous or the new version.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+public class JsonFileStorage implements DatasetStorage {
+    static final String EXTENSION = ".json";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final String dataPath;
+    private final String extension;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    /**
+     * Reader of the json files when the format is not json, null otherwise.
+     */
+    private final ObjectReader legacyReader;
+    private final Config.Durability durability;
+    private final GroupCommit groupCommit;
+
+    public JsonFileStorage(String dataPath, ObjectMapper objectMapper) {
+        this(dataPath, objectMapper, Config.Durability.NONE, Duration.ZERO);
+    }
+
+    /**
+     * @param dataPath          the data folder
+     * @param objectMapper      the object mapper
+     * @param durability        how the saves are made durable
+     * @param groupCommitWindow in {@link Config.Durability#GROUP} mode, the time during which saves are grouped
+     */
+    public JsonFileStorage(String dataPath, ObjectMapper objectMapper, Config.Durability durability, Duration groupCommitWindow) {
+        this(dataPath, objectMapper, EXTENSION, durability, groupCommitWindow);
+    }
+
+    /**
+     * @param dataPath          the data folder
+     * @param objectMapper      the object mapper, it defines the file format
+     * @param extension         the file extension of that format
+     * @param durability        how the saves are made durable
+     * @param groupCommitWindow in {@link Config.Durability#GROUP} mode, the time during which saves are grouped
+     */
+    public JsonFileStorage(String dataPath, ObjectMapper objectMapper, String extension, Config.Durability durability, Duration groupCommitWindow) {
+        this.dataPath = dataPath;
+        this.extension = extension;
+        this.durability = durability;
+        var mapType = objectMapper.getTypeFactory().constructMapType(Map.class, String.class, SyncData.class);
+        reader = objectMapper.readerFor(mapType);
+        legacyReader = EXTENSION.equals(extension) ? null : new ObjectMapper().readerFor(mapType);
+        // the stream is closed by us once synced
+        writer = objectMapper.writerFor(mapType).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        groupCommit = durability == Config.Durability.GROUP ? new GroupCommit(groupCommitWindow) : null;
+    }
+
+    @Override
+    public Map<String, SyncData> load(DatasetKey key) {
+        var dataPath = getPath(key);
+        logger.info("getData path={}", dataPath);
+        if (Files.exists(dataPath)) {
+            try {
+                return reader.readValue(dataPath.toFile());
+            } catch (IOException e) {
+                logger.error("Unable read data", e);
+            }
+        } else if (legacyReader != null && Files.exists(getLegacyPath(key))) {
+            try {
+                return legacyReader.readValue(getLegacyPath(key).toFile());
+            } catch (IOException e) {
+                logger.error("Unable read data", e);
+            }
+        }
+        logger.info("Nothing to return for {}", key.service());
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public long save(DatasetKey key, Map<String, SyncData> data) throws IOException {
+        var path = getPath(key);
+        logger.info("save to {}", path);
+        Files.createDirectories(path.getParent());
+        switch (durability) {
+            case NONE -> writer.writeValue(path.toFile(), data);
+            case FSYNC -> {
+                var temporaryFile = writeSynced(path, data);
+                Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                GroupCommit.syncDirectory(path.getParent());
+            }
+            case GROUP -> groupCommit.commit(writeSynced(path, data), path);
+        }
+        if (legacyReader != null) {
+            Files.deleteIfExists(getLegacyPath(key));
+        }
+        return Files.size(path);
+    }
+
+    /**
+     * Write a dataset next to its file and sync it.
+     *
+     * @return the temporary file
+     */
+    private Path writeSynced(Path path, Map<String, SyncData> data) throws IOException {
+        var temporaryFile = path.resolveSibling(path.getFileName() + TEMPORARY_EXTENSION);
+        try (var channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+            writer.writeValue(outputStream, data);
+            outputStream.flush();
+            channel.force(false);
+        }
+        return temporaryFile;
+    }
+
+    @Override
+    public void close() {
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+    }
+
+    @Override
+    public Collection<DatasetKey> list() throws IOException {
+        return listDatasets(Path.of(dataPath), extension, EXTENSION);
+    }
+
+    private Path getPath(DatasetKey key) {
+        return Path.of(dataPath, key.team(), key.service() + extension);
+    }
+
+    private Path getLegacyPath(DatasetKey key) {
+        return Path.of(dataPath, key.team(), key.service() + EXTENSION);
+    }
+
+    /**
+     * List the datasets stored as <code>dataPath/team/service.extension</code> files.
+     */
+    static Collection<DatasetKey> listDatasets(Path dataPath, String... extensions) throws IOException {
+        if (!Files.isDirectory(dataPath)) {
+            return Collections.emptyList();
+        }
+        try (var files = Files.find(dataPath, 2, (path, attributes) -> attributes.isRegularFile() && path.getParent() != null && !path.getParent().equals(dataPath))) {
+            return files
+                    .map(path -> toDatasetKey(path, extensions))
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .toList();
+        }
+    }
+
+    private static DatasetKey toDatasetKey(Path path, String... extensions) {
+        var fileName = path.getFileName().toString();
+        for (var extension : extensions) {
+            if (fileName.endsWith(extension)) {
+                var team = path.getParent().getFileName().toString();
+                var service = fileName.substring(0, fileName.length() - extension.length());
+                return DatasetKey.isValidName(team) && DatasetKey.isValidName(service) ? new DatasetKey(team, service) : null;
+            }
+        }
+        return null;
+    }
+}
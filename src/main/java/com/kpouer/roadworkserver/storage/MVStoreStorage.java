@@ -0,0 +1,172 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage in an embedded H2 MVStore key-value store <code>dataPath/roadwork.mv.db</code>.
+ * Each dataset is a map of entry id to the json bytes of the entry, so a save only writes the modified entries. When
+ * the caller knows them, only the changed entries are serialized.
+ *
+ * @author Matthieu Casanova
+ */
+@Slf4j
+public class MVStoreStorage implements DatasetStorage {
+    static final String FILE_NAME = "roadwork.mv.db";
+
+    private final MVStore store;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    public MVStoreStorage(String dataPath, ObjectMapper objectMapper) throws IOException {
+        var path = Path.of(dataPath, FILE_NAME);
+        Files.createDirectories(path.getParent());
+        store = new MVStore.Builder()
+                .fileName(path.toString())
+                .autoCommitDisabled()
+                .open();
+        reader = objectMapper.readerFor(SyncData.class);
+        writer = objectMapper.writerFor(SyncData.class);
+        logger.info("Opened {}", path);
+    }
+
+    @Override
+    public Map<String, SyncData> load(DatasetKey key) {
+        var name = key.toString();
+        var data = new HashMap<String, SyncData>();
+        if (store.hasMap(name)) {
+            for (var entry : openMap(key).entrySet()) {
+                data.put(entry.getKey(), read(entry.getValue()));
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public long save(DatasetKey key, Map<String, SyncData> data) {
+        var map = openMap(key);
+        var bytesWritten = 0L;
+        for (var entry : data.entrySet()) {
+            var value = write(entry.getValue());
+            if (!Arrays.equals(value, map.get(entry.getKey()))) {
+                map.put(entry.getKey(), value);
+                bytesWritten += value.length;
+            }
+        }
+        var removedIds = new ArrayList<String>();
+        for (var id : map.keySet()) {
+            if (!data.containsKey(id)) {
+                removedIds.add(id);
+            }
+        }
+        removedIds.forEach(map::remove);
+        store.commit();
+        return bytesWritten;
+    }
+
+    /**
+     * Write only the changed entries, without reading or serializing the other ones.
+     */
+    @Override
+    public long save(DatasetKey key, Map<String, SyncData> data, Set<String> changedIds) {
+        var map = openMap(key);
+        var bytesWritten = 0L;
+        for (var id : changedIds) {
+            var syncData = data.get(id);
+            if (syncData == null) {
+                map.remove(id);
+            } else {
+                var value = write(syncData);
+                map.put(id, value);
+                bytesWritten += value.length;
+            }
+        }
+        store.commit();
+        return bytesWritten;
+    }
+
+    @Override
+    public SyncData get(DatasetKey key, String id) {
+        if (!store.hasMap(key.toString())) {
+            return null;
+        }
+        var value = openMap(key).get(id);
+        return value == null ? null : read(value);
+    }
+
+    @Override
+    public void put(DatasetKey key, String id, SyncData syncData) {
+        openMap(key).put(id, write(syncData));
+        store.commit();
+    }
+
+    @Override
+    public Collection<DatasetKey> list() {
+        var keys = new ArrayList<DatasetKey>();
+        for (var name : store.getMapNames()) {
+            var separator = name.indexOf('/');
+            if (separator > 0 && DatasetKey.isValidName(name.substring(0, separator)) && DatasetKey.isValidName(name.substring(separator + 1))) {
+                keys.add(new DatasetKey(name.substring(0, separator), name.substring(separator + 1)));
+            }
+        }
+        return keys;
+    }
+
+    private MVMap<String, byte[]> openMap(DatasetKey key) {
+        return store.openMap(key.toString());
+    }
+
+    private SyncData read(byte[] value) {
+        try {
+            return reader.readValue(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] write(SyncData syncData) {
+        try {
+            return writer.writeValueAsBytes(syncData);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        logger.info("Closing store");
+        store.close();
+    }
+}
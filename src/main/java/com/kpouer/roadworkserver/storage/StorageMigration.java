@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadworkserver.config.Config;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Import the json files <code>dataPath/team/service.json</code> into the configured storage when the server is
+ * started with the <code>--migrate</code> argument.
+ * In that case the application is started without the web server and exits once the migration is done, see
+ * {@link com.kpouer.roadworkserver.RoadworkServerApplication}.
+ *
+ * @author Matthieu Casanova
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class StorageMigration implements ApplicationRunner {
+    public static final String MIGRATE_OPTION = "migrate";
+
+    private final Config config;
+    private final DatasetStorage storage;
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (!args.containsOption(MIGRATE_OPTION)) {
+            return;
+        }
+        if (storage instanceof JsonFileStorage) {
+            logger.info("The storage is already json files, nothing to migrate");
+            return;
+        }
+        var jsonFileStorage = new JsonFileStorage(config.getDataPath(), new ObjectMapper());
+        var datasets = jsonFileStorage.list();
+        logger.info("Migrating {} datasets to {}", datasets.size(), config.getStorage().getMode());
+        for (var key : datasets) {
+            var data = jsonFileStorage.load(key);
+            storage.save(key, data);
+            logger.info("Migrated {} ({} entries)", key, data.size());
+        }
+    }
+}
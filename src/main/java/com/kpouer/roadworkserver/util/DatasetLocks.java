@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.util;
+
+import com.kpouer.roadworkserver.model.DatasetKey;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks serializing the operations on a dataset, used by the merges and by the storages.
+ * The same dataset always gets the same lock, different datasets usually get different locks so they can be merged
+ * in parallel.
+ *
+ * @author Matthieu Casanova
+ */
+public class DatasetLocks {
+    private final Lock[] stripes;
+    private final int mask;
+
+    /**
+     * Create the locks.
+     *
+     * @param stripes the number of locks, rounded up to a power of two
+     */
+    public DatasetLocks(int stripes) {
+        var size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the lock of a dataset.
+     *
+     * @param key the dataset key
+     * @return the lock
+     */
+    public Lock get(DatasetKey key) {
+        var hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+}
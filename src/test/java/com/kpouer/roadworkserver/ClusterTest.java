@@ -0,0 +1,315 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two instances in cluster mode sharing the same data folder.
+ * They run in their own JVM since the file locks are held by the process.
+ *
+ * @author Matthieu Casanova
+ */
+class ClusterTest {
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private static Path directory;
+    private static Instance first;
+    private static Instance second;
+
+    @BeforeAll
+    static void start() throws Exception {
+        directory = Files.createTempDirectory("roadwork-cluster");
+        var dataPath = directory.resolve("data");
+        TestUsers.write(dataPath);
+        first = Instance.start(directory.resolve("first"), dataPath);
+        second = Instance.start(directory.resolve("second"), dataPath);
+        first.waitUntilReady();
+        second.waitUntilReady();
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        if (first != null) {
+            first.close();
+        }
+        if (second != null) {
+            second.close();
+        }
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    /**
+     * The clients sync the same dataset alternately on both instances, no entry may be lost.
+     */
+    @Test
+    void noLostUpdateAcrossInstances() throws Exception {
+        var dataset = "concurrent";
+        try (var executor = Executors.newFixedThreadPool(THREADS)) {
+            var tasks = new ArrayList<Callable<Void>>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                var clientId = thread;
+                tasks.add(() -> {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        var instance = (clientId + round) % 2 == 0 ? first : second;
+                        var response = instance.sync(dataset, "client-" + clientId + '-' + round);
+                        assertEquals(200, response.statusCode(), response.body());
+                    }
+                    return null;
+                });
+            }
+            for (var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        }
+
+        var firstData = OBJECT_MAPPER.readTree(first.getData(dataset, null).body());
+        var secondData = OBJECT_MAPPER.readTree(second.getData(dataset, null).body());
+        assertEquals(THREADS * ROUNDS, firstData.size());
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int round = 0; round < ROUNDS; round++) {
+                assertTrue(firstData.has("client-" + thread + '-' + round), "lost client-" + thread + '-' + round);
+            }
+        }
+        assertEquals(firstData, secondData);
+    }
+
+    /**
+     * The clients send their dataset with <code>POST /setData</code>, parsed or streamed, alternately on both
+     * instances, no entry may be lost.
+     */
+    @Test
+    void noLostSetDataAcrossInstances() throws Exception {
+        var dataset = "concurrent-set-data";
+        try (var executor = Executors.newFixedThreadPool(THREADS)) {
+            var tasks = new ArrayList<Callable<Void>>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                var clientId = thread;
+                tasks.add(() -> {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        var instance = (clientId + round) % 2 == 0 ? first : second;
+                        var response = instance.setData(dataset, "client-" + clientId + '-' + round, round % 2 == 0);
+                        assertEquals(200, response.statusCode(), response.body());
+                    }
+                    return null;
+                });
+            }
+            for (var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        }
+
+        var firstData = OBJECT_MAPPER.readTree(first.getData(dataset, null).body());
+        var secondData = OBJECT_MAPPER.readTree(second.getData(dataset, null).body());
+        assertEquals(THREADS * ROUNDS, firstData.size());
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int round = 0; round < ROUNDS; round++) {
+                assertTrue(firstData.has("client-" + thread + '-' + round), "lost client-" + thread + '-' + round);
+            }
+        }
+        assertEquals(firstData, secondData);
+    }
+
+    /**
+     * A subscriber of the first instance receives the entries saved by the second one.
+     */
+    @Test
+    void subscriberReceivesChangesOfTheOtherInstance() throws Exception {
+        var dataset = "subscription";
+        assertEquals(200, first.sync(dataset, "first-entry").statusCode());
+        // the first instance knows the current version, the next change comes from the second instance
+        assertEquals(200, first.getData(dataset, null).statusCode());
+
+        var subscription = first.subscribe(dataset);
+        assertEquals(200, subscription.statusCode());
+        try (var lines = subscription.body()) {
+            var received = CompletableFuture.supplyAsync(() -> lines
+                    .filter(line -> line.startsWith("data:") && line.contains("second-entry"))
+                    .findFirst());
+            assertEquals(200, second.sync(dataset, "second-entry").statusCode());
+            assertTrue(received.get(1, TimeUnit.MINUTES).isPresent());
+        }
+    }
+
+    /**
+     * Both instances give the same entity tag to the same version and see the changes made by the other one.
+     */
+    @Test
+    void sameEntityTagOnBothInstances() throws Exception {
+        var dataset = "etag";
+        assertEquals(200, first.sync(dataset, "first-entry").statusCode());
+
+        var firstResponse = first.getData(dataset, null);
+        var etag = firstResponse.headers().firstValue("ETag").orElse(null);
+        assertNotNull(etag);
+        var secondResponse = second.getData(dataset, null);
+        assertEquals(etag, secondResponse.headers().firstValue("ETag").orElse(null));
+        assertEquals(304, second.getData(dataset, etag).statusCode());
+
+        // a change made on the second instance is seen by the first one
+        assertEquals(200, second.sync(dataset, "second-entry").statusCode());
+        var changed = first.getData(dataset, etag);
+        assertEquals(200, changed.statusCode());
+        assertNotEquals(etag, changed.headers().firstValue("ETag").orElse(null));
+        assertTrue(OBJECT_MAPPER.readTree(changed.body()).has("second-entry"));
+    }
+
+    private record Instance(Path directory, Process process, URI baseUri) implements AutoCloseable {
+        static Instance start(Path directory, Path dataPath) throws IOException {
+            Files.createDirectories(directory.resolve("config"));
+            Files.createFile(directory.resolve("config/application.properties"));
+            var port = freePort();
+            var command = List.of(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    RoadworkServerApplication.class.getName(),
+                    "--server.port=" + port,
+                    "--logging.config=",
+                    "--roadwork.data-path=" + dataPath,
+                    "--roadwork.cluster.enabled=true",
+                    "--roadwork.cluster.instance-id=" + directory.getFileName(),
+                    "--roadwork.warmup.enabled=false",
+                    "--roadwork.users.watch=false");
+            var process = new ProcessBuilder(command)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(directory.resolve("server.log").toFile())
+                    .start();
+            return new Instance(directory, process, URI.create("http://127.0.0.1:" + port));
+        }
+
+        void waitUntilReady() throws IOException, InterruptedException {
+            var deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+            var request = HttpRequest.newBuilder(baseUri.resolve("/actuator/health/readiness")).build();
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The server exited\n" + Files.readString(directory.resolve("server.log")));
+                }
+                try {
+                    if (HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    // not listening yet
+                }
+                Thread.sleep(200);
+            }
+            throw new IOException("The server is not ready after " + STARTUP_TIMEOUT);
+        }
+
+        /**
+         * Add a new entry to a dataset.
+         */
+        HttpResponse<String> sync(String dataset, String id) throws IOException, InterruptedException {
+            var entry = Map.of(
+                    "status", "New",
+                    "localUpdateTime", System.currentTimeMillis(),
+                    "serverUpdateTime", 0,
+                    "dirty", true);
+            var body = OBJECT_MAPPER.writeValueAsString(Map.of("since", 0, "changes", Map.of(id, entry)));
+            var request = HttpRequest.newBuilder(baseUri.resolve("/sync/" + TestUsers.TEAM + '/' + dataset))
+                    .header("Authorization", TestUsers.authorization())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            return HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+
+        /**
+         * Send a dataset made of a new entry.
+         */
+        HttpResponse<String> setData(String dataset, String id, boolean streaming) throws IOException, InterruptedException {
+            var entry = Map.of(
+                    "status", "New",
+                    "localUpdateTime", System.currentTimeMillis(),
+                    "serverUpdateTime", 0,
+                    "dirty", true);
+            var body = OBJECT_MAPPER.writeValueAsString(Map.of(id, entry));
+            var path = "/setData/" + TestUsers.TEAM + '/' + dataset + (streaming ? "?streaming=true" : "");
+            var request = HttpRequest.newBuilder(baseUri.resolve(path))
+                    .header("Authorization", TestUsers.authorization())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            return HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+
+        /**
+         * Subscribe to the changes of a dataset, the response is received once the subscription is registered.
+         */
+        HttpResponse<Stream<String>> subscribe(String dataset) throws IOException, InterruptedException {
+            var request = HttpRequest.newBuilder(baseUri.resolve("/subscribe/" + TestUsers.TEAM + '/' + dataset))
+                    .header("Authorization", TestUsers.authorization())
+                    .header("Accept", "text/event-stream")
+                    .build();
+            return HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofLines());
+        }
+
+        HttpResponse<String> getData(String dataset, String ifNoneMatch) throws IOException, InterruptedException {
+            var request = HttpRequest.newBuilder(baseUri.resolve("/data/" + TestUsers.TEAM + '/' + dataset))
+                    .header("Authorization", TestUsers.authorization());
+            if (ifNoneMatch != null) {
+                request.header("If-None-Match", ifNoneMatch);
+            }
+            return HTTP_CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            process.destroy();
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+
+        private static int freePort() throws IOException {
+            try (var socket = new ServerSocket(0)) {
+                return socket.getLocalPort();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The user of the tests running a server, it belongs to a single team.
+ *
+ * @author Matthieu Casanova
+ */
+public final class TestUsers {
+    public static final String USERNAME = "user";
+    public static final String PASSWORD = "password";
+    public static final String TEAM = "team";
+
+    private TestUsers() {
+    }
+
+    /**
+     * Write the users.json file of a data folder.
+     *
+     * @param dataPath the data folder
+     */
+    public static void write(Path dataPath) throws IOException {
+        Files.createDirectories(dataPath);
+        var user = Map.of(
+                "username", USERNAME,
+                // the lowest cost, the tests authenticate many requests
+                "password", new BCryptPasswordEncoder(4).encode(PASSWORD),
+                "teams", List.of(TEAM),
+                "admin", false);
+        new ObjectMapper().writeValue(dataPath.resolve("users.json").toFile(), List.of(user));
+    }
+
+    /**
+     * Returns the value of the basic authentication header.
+     */
+    public static String authorization() {
+        var credentials = USERNAME + ':' + PASSWORD;
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.SyncData;
+
+import java.util.Map;
+
+/**
+ * The two-pass merge of the first version of the server, without the logs and the save, used as a reference by the
+ * merge tests. It must not share any code with {@link DataService}.
+ *
+ * @author Matthieu Casanova
+ */
+final class BaselineMerge {
+    private BaselineMerge() {
+    }
+
+    /**
+     * Merge existing data with new data.
+     *
+     * @param existingSyncDataList the existing data
+     * @param newSyncDataList      the new data, modified by the merge
+     * @param serverUpdateTime     the update time of this merge
+     * @return the merged data.
+     */
+    static Map<String, SyncData> merge(Map<String, SyncData> existingSyncDataList, Map<String, SyncData> newSyncDataList,
+                                       long serverUpdateTime) {
+        for (var entry : existingSyncDataList.entrySet()) {
+            var existingSyncData = entry.getValue();
+            var id = entry.getKey();
+            var newSyncData = newSyncDataList.get(id);
+            if (newSyncData != null) {
+                if (newSyncData.isDirty()) {
+                    if (newSyncData.getServerUpdateTime() == existingSyncData.getServerUpdateTime()) {
+                        newSyncData.setServerUpdateTime(serverUpdateTime);
+                        newSyncData.setLocalUpdateTime(serverUpdateTime);
+                    } else {
+                        // server version is more up to date but it is also modified by the client, use the greatest status
+                        if (newSyncData.getStatus().compareTo(existingSyncData.getStatus()) < 0) {
+                            // server version is better
+                            newSyncData.setStatus(existingSyncData.getStatus());
+                            newSyncData.setServerUpdateTime(existingSyncData.getServerUpdateTime());
+                            newSyncData.setLocalUpdateTime(existingSyncData.getServerUpdateTime());
+                        } else {
+                            newSyncData.setServerUpdateTime(serverUpdateTime);
+                            newSyncData.setLocalUpdateTime(serverUpdateTime);
+                        }
+                    }
+                    newSyncData.setDirty(false);
+                } else {
+                    if (newSyncData.getServerUpdateTime() != existingSyncData.getServerUpdateTime()) {
+                        newSyncData.setServerUpdateTime(existingSyncData.getServerUpdateTime());
+                        newSyncData.setLocalUpdateTime(existingSyncData.getServerUpdateTime());
+                        newSyncData.setStatus(existingSyncData.getStatus());
+                    }
+                }
+            }
+        }
+        newSyncDataList.values().forEach(syncData -> syncData.setDirty(false));
+        return newSyncDataList;
+    }
+
+    /**
+     * The only intended change since the first version: the entries created by a client, unknown by the server and
+     * without server update time, get the update time of the merge so the /sync clients receive them.
+     *
+     * @param existingSyncDataList the existing data
+     * @param newSyncDataList      the new data, before the merge
+     * @param serverUpdateTime     the update time of this merge
+     * @return the merged data.
+     */
+    static Map<String, SyncData> mergeAndStampCreatedEntries(Map<String, SyncData> existingSyncDataList,
+                                                             Map<String, SyncData> newSyncDataList, long serverUpdateTime) {
+        newSyncDataList.forEach((id, syncData) -> {
+            if (!existingSyncDataList.containsKey(id) && syncData.getServerUpdateTime() == 0) {
+                syncData.setServerUpdateTime(serverUpdateTime);
+            }
+        });
+        return merge(existingSyncDataList, newSyncDataList, serverUpdateTime);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.kpouer.roadworkserver.service.RandomDatasets.assertSameDataset;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * The merge must give the same result as the merge of the first version of the server, except for the server update
+ * time of the entries created by a client.
+ * The datasets are random but generated from a fixed seed, the seed of a failing case is in the assertion message.
+ *
+ * @author Matthieu Casanova
+ */
+class BaselineMergeTest {
+    private static final long SEED = 42;
+    private static final int CASES = 40;
+
+    @Test
+    void mergeEqualsBaselineMerge() {
+        var random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            var seed = random.nextLong();
+            var caseRandom = new Random(seed);
+            var serverDataset = RandomDatasets.serverDataset(caseRandom, caseRandom.nextInt(5_000));
+            var clientDataset = RandomDatasets.clientDataset(caseRandom, serverDataset, caseRandom.nextInt(500));
+            var serverUpdateTime = RandomDatasets.BASE_TIME + 2_000_000;
+
+            var expected = BaselineMerge.mergeAndStampCreatedEntries(serverDataset, RandomDatasets.copy(clientDataset), serverUpdateTime);
+            var merged = DataService.merge(serverDataset, RandomDatasets.copy(clientDataset), serverUpdateTime, new MergeStats());
+            assertSameDataset(expected, merged, "seed " + seed);
+        }
+    }
+
+    @Test
+    void newEntryKeepsItsClientState() {
+        var serverUpdateTime = RandomDatasets.BASE_TIME + 2_000_000;
+        var created = syncData(RandomDatasets.BASE_TIME + 5, 0, Status.Finished);
+        var known = syncData(RandomDatasets.BASE_TIME + 7, RandomDatasets.BASE_TIME + 3, Status.Later);
+        var clientDataset = new HashMap<>(Map.of("created", created, "known", known));
+
+        var merged = DataService.merge(Map.of(), clientDataset, serverUpdateTime, new MergeStats());
+
+        var mergedCreated = merged.get("created");
+        assertEquals(Status.Finished, mergedCreated.getStatus());
+        assertEquals(RandomDatasets.BASE_TIME + 5, mergedCreated.getLocalUpdateTime());
+        assertEquals(serverUpdateTime, mergedCreated.getServerUpdateTime());
+        assertFalse(mergedCreated.isDirty());
+        var mergedKnown = merged.get("known");
+        assertEquals(Status.Later, mergedKnown.getStatus());
+        assertEquals(RandomDatasets.BASE_TIME + 7, mergedKnown.getLocalUpdateTime());
+        assertEquals(RandomDatasets.BASE_TIME + 3, mergedKnown.getServerUpdateTime());
+        assertFalse(mergedKnown.isDirty());
+    }
+
+    private static SyncData syncData(long localUpdateTime, long serverUpdateTime, Status status) {
+        var syncData = new SyncData();
+        syncData.setLocalUpdateTime(localUpdateTime);
+        syncData.setServerUpdateTime(serverUpdateTime);
+        syncData.setStatus(status);
+        syncData.setDirty(true);
+        return syncData;
+    }
+}
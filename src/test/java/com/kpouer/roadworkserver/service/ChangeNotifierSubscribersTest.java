@@ -0,0 +1,246 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.TestUsers;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.model.DeltaRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Thousands of subscribers of the same dataset and one that never reads its events.
+ * The fast subscribers must receive every change event in the merge order and the slow one must be the only one
+ * disconnected. Each merge waits until every fast subscriber received its event, so they never fill their queue
+ * whatever the speed of the machine, while the events of the slow one pile up.
+ * The number of subscribers can be changed with <code>-Droadwork.test.subscribers</code>.
+ * Tomcat sends with a small socket buffer so the slow subscriber blocks after a few events.
+ *
+ * @author Matthieu Casanova
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.config.additional-location=optional:file:./config/application.properties",
+        "logging.config=",
+        "roadwork.warmup.enabled=false",
+        "roadwork.users.watch=false",
+        "roadwork.audit.enabled=false",
+        "roadwork.notification.queue-capacity=16"})
+class ChangeNotifierSubscribersTest {
+    private static final String SERVICE = "service";
+    private static final DatasetKey KEY = new DatasetKey(TestUsers.TEAM, SERVICE);
+    private static final int SUBSCRIBERS = Integer.getInteger("roadwork.test.subscribers", 2000);
+    private static final int MERGES = 200;
+    private static final int ENTRIES_PER_MERGE = 20;
+
+    @LocalServerPort
+    int port;
+    @Autowired
+    DataService dataService;
+    @Autowired
+    ChangeNotifier changeNotifier;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @DynamicPropertySource
+    static void dataPath(DynamicPropertyRegistry registry) throws IOException {
+        var dataPath = Files.createTempDirectory("roadwork-subscribers");
+        TestUsers.write(dataPath);
+        registry.add("roadwork.data-path", dataPath::toString);
+    }
+
+    @Test
+    void slowSubscriberDoesNotBlockTheOthers() throws Exception {
+        var httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        var request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/subscribe/" + TestUsers.TEAM + '/' + SERVICE))
+                .header("Authorization", TestUsers.authorization())
+                .header("Accept", "text/event-stream")
+                .build();
+        // received[i] is released once every fast subscriber received the event of the merge i
+        var received = new CountDownLatch[MERGES];
+        for (int i = 0; i < MERGES; i++) {
+            received[i] = new CountDownLatch(SUBSCRIBERS);
+        }
+        var failure = new AtomicReference<String>();
+        var streams = new ArrayList<Stream<String>>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            // the headers are sent once the subscription is registered
+            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+            assertEquals(200, response.statusCode());
+            streams.add(response.body());
+            Thread.ofVirtual().start(() -> readEvents(response.body(), received, failure));
+        }
+
+        var disconnectedSubscribers = changeNotifier.getDisconnectedSubscribers();
+        try (var slowSubscriber = subscribeWithoutReading()) {
+            assertEquals(SUBSCRIBERS + 1, changeNotifier.getSubscriberCount(KEY));
+            for (int i = 0; i < MERGES; i++) {
+                dataService.sync(TestUsers.TEAM, SERVICE, newEntries(i));
+                assertTrue(received[i].await(1, TimeUnit.MINUTES),
+                        received[i].getCount() + " subscribers didn't receive the event of merge " + i);
+                assertNull(failure.get());
+            }
+
+            assertEquals(disconnectedSubscribers + 1, changeNotifier.getDisconnectedSubscribers());
+            assertEquals(SUBSCRIBERS, changeNotifier.getSubscriberCount(KEY));
+            assertDisconnected(slowSubscriber);
+        } finally {
+            streams.forEach(Stream::close);
+        }
+    }
+
+    /**
+     * Count the events of a subscriber, their entries must be more recent than the ones of the previous event.
+     */
+    private void readEvents(Stream<String> lines, CountDownLatch[] received, AtomicReference<String> failure) {
+        var events = new AtomicInteger();
+        var lastServerUpdateTime = new long[1];
+        try {
+            lines.filter(line -> line.startsWith("data:"))
+                    .forEach(line -> {
+                        var serverUpdateTime = maxServerUpdateTime(line.substring("data:".length()));
+                        if (serverUpdateTime <= lastServerUpdateTime[0]) {
+                            failure.compareAndSet(null, "event " + events.get() + " received out of order");
+                        }
+                        lastServerUpdateTime[0] = serverUpdateTime;
+                        var event = events.getAndIncrement();
+                        if (event < MERGES) {
+                            received[event].countDown();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // closed at the end of the test
+        }
+        if (events.get() < MERGES) {
+            failure.compareAndSet(null, "subscriber disconnected after " + events.get() + " events");
+        }
+    }
+
+    private long maxServerUpdateTime(String json) {
+        try {
+            var max = 0L;
+            for (var entry : objectMapper.readTree(json)) {
+                max = Math.max(max, entry.get("serverUpdateTime").asLong());
+            }
+            return max;
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid event " + json, e);
+        }
+    }
+
+    /**
+     * Subscribe with a tiny receive buffer and only read the response headers.
+     */
+    private Socket subscribeWithoutReading() throws IOException {
+        var socket = new Socket();
+        socket.setReceiveBufferSize(1024);
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        var request = "GET /subscribe/" + TestUsers.TEAM + '/' + SERVICE + " HTTP/1.1\r\n" +
+                "Host: 127.0.0.1:" + port + "\r\n" +
+                "Authorization: " + TestUsers.authorization() + "\r\n" +
+                "Accept: text/event-stream\r\n" +
+                "Connection: close\r\n\r\n";
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+        var headers = readHeaders(socket.getInputStream());
+        assertTrue(headers.startsWith("HTTP/1.1 200"), headers);
+        return socket;
+    }
+
+    private static String readHeaders(InputStream inputStream) throws IOException {
+        var headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            var b = inputStream.read();
+            if (b == -1) {
+                break;
+            }
+            headers.append((char) b);
+        }
+        return headers.toString();
+    }
+
+    /**
+     * Once read, the stream of a disconnected subscriber must end.
+     */
+    private static void assertDisconnected(Socket socket) throws IOException {
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(30));
+        var buffer = new byte[8192];
+        try {
+            var inputStream = socket.getInputStream();
+            while (inputStream.read(buffer) != -1) {
+                // discard the events queued before the disconnection
+            }
+        } catch (SocketTimeoutException e) {
+            fail("The slow subscriber was not disconnected");
+        }
+    }
+
+    private static DeltaRequest newEntries(int merge) {
+        var changes = new HashMap<String, SyncData>();
+        for (int i = 0; i < ENTRIES_PER_MERGE; i++) {
+            var syncData = new SyncData();
+            syncData.setStatus(Status.New);
+            syncData.setLocalUpdateTime(System.currentTimeMillis());
+            syncData.setDirty(true);
+            changes.put("merge-" + merge + '-' + i, syncData);
+        }
+        var request = new DeltaRequest();
+        request.setChanges(changes);
+        return request;
+    }
+
+    @TestConfiguration
+    static class SmallSendBuffer {
+        @Bean
+        WebServerFactoryCustomizer<TomcatServletWebServerFactory> smallSendBuffer() {
+            return factory -> factory.addConnectorCustomizers(connector -> connector.setProperty("socket.txBufSize", "8192"));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.audit.AuditLog;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import com.kpouer.roadworkserver.model.DeltaRequest;
+import com.kpouer.roadworkserver.storage.JsonFileStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A client that still has the entries removed by the retention compaction must not add them back, unless it modified
+ * them after the removal.
+ *
+ * @author Matthieu Casanova
+ */
+class DataServiceCompactionTest {
+    private static final String TEAM = "team";
+    private static final String SERVICE = "service";
+    private static final DatasetKey KEY = new DatasetKey(TEAM, SERVICE);
+
+    @TempDir
+    Path dataPath;
+
+    @Test
+    void compactedEntryIsNotResent() throws Exception {
+        Map<String, SyncData> clientDataset;
+        var dataService = newDataService();
+        try {
+            var merged = dataService.setData(TEAM, SERVICE, new HashMap<>(Map.of(
+                    "finished", syncData(Status.Finished, 1_000),
+                    "ongoing", syncData(Status.New, 1_000))));
+            // what the client keeps after its sync
+            clientDataset = RandomDatasets.copy(merged);
+
+            var removed = dataService.compact(KEY, syncData -> syncData.getStatus() == Status.Finished);
+            assertEquals(Set.of("finished"), removed.keySet());
+
+            var resent = dataService.setData(TEAM, SERVICE, RandomDatasets.copy(clientDataset));
+            assertFalse(resent.containsKey("finished"));
+            assertTrue(resent.containsKey("ongoing"));
+
+            var request = new DeltaRequest();
+            request.setChanges(new HashMap<>(Map.of("finished", RandomDatasets.copy(clientDataset.get("finished")))));
+            var response = dataService.sync(TEAM, SERVICE, request);
+            assertFalse(response.getChanges().containsKey("finished"));
+        } finally {
+            dataService.close();
+        }
+
+        // the removed entries are remembered after a restart
+        var restarted = newDataService();
+        try {
+            assertFalse(restarted.setData(TEAM, SERVICE, RandomDatasets.copy(clientDataset)).containsKey("finished"));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    void compactedEntryModifiedByTheClientIsAddedBack() throws Exception {
+        var dataService = newDataService();
+        try {
+            var merged = dataService.setData(TEAM, SERVICE, new HashMap<>(Map.of("finished", syncData(Status.Finished, 1_000))));
+            var clientDataset = RandomDatasets.copy(merged);
+            dataService.compact(KEY, syncData -> syncData.getStatus() == Status.Finished);
+
+            var modified = clientDataset.get("finished");
+            modified.setStatus(Status.Treated);
+            modified.setLocalUpdateTime(modified.getLocalUpdateTime() + 1);
+            modified.setDirty(true);
+            var resent = dataService.setData(TEAM, SERVICE, clientDataset);
+            assertEquals(Status.Treated, resent.get("finished").getStatus());
+        } finally {
+            dataService.close();
+        }
+    }
+
+    private DataService newDataService() {
+        var config = new Config();
+        config.setDataPath(dataPath.toString());
+        config.getAudit().setEnabled(false);
+        var storage = new JsonFileStorage(config.getDataPath(), new ObjectMapper());
+        return new DataService(config, storage, new SyncMetrics(new SimpleMeterRegistry()), new ChangeNotifier(config), new AuditLog(config));
+    }
+
+    private static SyncData syncData(Status status, long localUpdateTime) {
+        var syncData = new SyncData();
+        syncData.setStatus(status);
+        syncData.setLocalUpdateTime(localUpdateTime);
+        syncData.setDirty(true);
+        return syncData;
+    }
+}
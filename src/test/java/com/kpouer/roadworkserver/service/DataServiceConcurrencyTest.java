@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.audit.AuditLog;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DeltaRequest;
+import com.kpouer.roadworkserver.storage.JsonFileStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many clients sync the same dataset at once, each one adding its own entries and modifying a shared one.
+ * No entry may be lost and every merge must get its own server update time, whatever the number of threads.
+ *
+ * @author Matthieu Casanova
+ */
+class DataServiceConcurrencyTest {
+    private static final String TEAM = "team";
+    private static final String SERVICE = "service";
+    private static final String SHARED_ID = "shared";
+    private static final int ROUNDS = 20;
+
+    @TempDir
+    Path dataPath;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 4, 16, 64, 256})
+    void noLostUpdate(int threads) throws Exception {
+        var serverUpdateTimes = ConcurrentHashMap.<Long>newKeySet();
+        var dataService = newDataService();
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<?>>();
+            for (int thread = 0; thread < threads; thread++) {
+                var clientId = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        var id = "client-" + clientId + '-' + round;
+                        var request = new DeltaRequest();
+                        request.setChanges(new HashMap<>(Map.of(
+                                id, syncData(Status.New),
+                                SHARED_ID, syncData(Status.values()[round % Status.values().length]))));
+                        var response = dataService.sync(TEAM, SERVICE, request);
+                        var merged = response.getChanges().get(id);
+                        assertTrue(serverUpdateTimes.add(merged.getServerUpdateTime()), "server update time reused by " + id);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            dataService.close();
+        }
+        var expectedEntries = threads * ROUNDS + 1;
+        assertEquals(threads * ROUNDS, serverUpdateTimes.size());
+
+        // the write-behind cache must have written every merge when the service was closed
+        var reloaded = newDataService();
+        try {
+            var dataset = reloaded.sync(TEAM, SERVICE, new DeltaRequest()).getChanges();
+            assertEquals(expectedEntries, dataset.size());
+            for (int thread = 0; thread < threads; thread++) {
+                for (int round = 0; round < ROUNDS; round++) {
+                    assertTrue(dataset.containsKey("client-" + thread + '-' + round), "lost client-" + thread + '-' + round);
+                }
+            }
+            // an entry keeps the time of the merge that added it
+            assertEquals(Set.copyOf(serverUpdateTimes), Set.copyOf(dataset.entrySet().stream()
+                    .filter(entry -> !SHARED_ID.equals(entry.getKey()))
+                    .map(entry -> entry.getValue().getServerUpdateTime())
+                    .toList()));
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    private DataService newDataService() {
+        var config = new Config();
+        config.setDataPath(dataPath.toString());
+        config.getAudit().setEnabled(false);
+        var storage = new JsonFileStorage(config.getDataPath(), new ObjectMapper());
+        return new DataService(config, storage, new SyncMetrics(new SimpleMeterRegistry()), new ChangeNotifier(config), new AuditLog(config));
+    }
+
+    private static SyncData syncData(Status status) {
+        var syncData = new SyncData();
+        syncData.setStatus(status);
+        syncData.setLocalUpdateTime(System.currentTimeMillis());
+        syncData.setDirty(true);
+        return syncData;
+    }
+}
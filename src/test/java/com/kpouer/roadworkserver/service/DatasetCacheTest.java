@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+import com.kpouer.roadworkserver.config.Config;
+import com.kpouer.roadworkserver.model.DatasetKey;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The writer of the cache must receive the ids changed by every put made since the previous write.
+ *
+ * @author Matthieu Casanova
+ */
+class DatasetCacheTest {
+    private static final DatasetKey KEY = new DatasetKey("team", "service");
+
+    @Test
+    void changedIdsAreAccumulatedUntilWritten() {
+        var writes = new ArrayList<Set<String>>();
+        try (var cache = newCache(writes)) {
+            cache.get(KEY);
+            cache.put(KEY, Map.of("a", syncData(), "b", syncData()), 1, Set.of("a", "b"));
+            cache.put(KEY, Map.of("a", syncData(), "c", syncData()), 2, Set.of("b", "c"));
+            cache.flushAll();
+            cache.put(KEY, Map.of("a", syncData()), 3, Set.of("c"));
+            cache.flushAll();
+        }
+        assertEquals(List.of(Set.of("a", "b", "c"), Set.of("c")), writes);
+    }
+
+    @Test
+    void unknownChangesWriteEverything() {
+        var writes = new ArrayList<Set<String>>();
+        try (var cache = newCache(writes)) {
+            cache.get(KEY);
+            cache.put(KEY, Map.of("a", syncData()), 1);
+            cache.put(KEY, Map.of("a", syncData(), "b", syncData()), 2, Set.of("b"));
+            cache.flushAll();
+        }
+        assertEquals(1, writes.size());
+        assertNull(writes.getFirst());
+    }
+
+    private static DatasetCache newCache(List<Set<String>> writes) {
+        var cacheConfig = new Config.Cache();
+        // only written by the explicit flushes
+        cacheConfig.setMaxStaleness(Duration.ofHours(1));
+        return new DatasetCache(cacheConfig, false,
+                key -> Map.of(),
+                (key, data, changedIds) -> writes.add(changedIds == null ? null : new HashSet<>(changedIds)),
+                key -> {
+                });
+    }
+
+    private static SyncData syncData() {
+        var syncData = new SyncData();
+        syncData.setStatus(Status.New);
+        return syncData;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.kpouer.roadworkserver.service.RandomDatasets.assertSameDataset;
+import static com.kpouer.roadworkserver.service.RandomDatasets.assertSameStats;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The fork/join merge must give the same entries, statuses and times as the two-pass merge of {@link BaselineMerge},
+ * which doesn't share any code with it, and the same number of entries per conflict rule as the sequential merge.
+ * The datasets are random but generated from a fixed seed, the seed of a failing case is in the assertion message.
+ *
+ * @author Matthieu Casanova
+ */
+class ParallelMergeTest {
+    private static final long SEED = 42;
+    private static final int CASES = 40;
+
+    @Test
+    void parallelMergeEqualsBaselineMerge() {
+        var random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            var seed = random.nextLong();
+            var caseRandom = new Random(seed);
+            // up to several chunks of the fork/join merge
+            var serverDataset = RandomDatasets.serverDataset(caseRandom, caseRandom.nextInt(20_000));
+            var clientDataset = RandomDatasets.clientDataset(caseRandom, serverDataset, caseRandom.nextInt(2_000));
+            var serverUpdateTime = RandomDatasets.BASE_TIME + 2_000_000;
+            var message = "seed " + seed;
+
+            var expected = BaselineMerge.mergeAndStampCreatedEntries(serverDataset, RandomDatasets.copy(clientDataset), serverUpdateTime);
+            var sequentialStats = new MergeStats();
+            DataService.merge(serverDataset, RandomDatasets.copy(clientDataset), serverUpdateTime, sequentialStats);
+            var parallelStats = new MergeStats();
+            var parallel = DataService.merge(serverDataset, RandomDatasets.copy(clientDataset), serverUpdateTime, parallelStats, 1);
+
+            assertSameDataset(expected, parallel, message);
+            assertSameStats(sequentialStats, parallelStats, message);
+            var merged = Arrays.stream(MergeBranch.values()).mapToInt(parallelStats::get).sum();
+            assertEquals(clientDataset.size(), merged, message);
+        }
+    }
+}
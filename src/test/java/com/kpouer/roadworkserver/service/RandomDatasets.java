@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.kpouer.roadwork.model.sync.Status;
+import com.kpouer.roadwork.model.sync.SyncData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Random datasets covering every conflict rule, generated from a seed so a failure can be replayed.
+ *
+ * @author Matthieu Casanova
+ */
+final class RandomDatasets {
+    static final long BASE_TIME = 1_653_331_693_000L;
+    private static final Status[] STATUSES = Status.values();
+
+    private RandomDatasets() {
+    }
+
+    /**
+     * Returns a dataset as stored by the server.
+     */
+    static Map<String, SyncData> serverDataset(Random random, int size) {
+        var data = new HashMap<String, SyncData>();
+        for (int i = 0; i < size; i++) {
+            var time = BASE_TIME + random.nextInt(1_000_000);
+            data.put(id(i), syncData(time, time, randomStatus(random), false));
+        }
+        return data;
+    }
+
+    /**
+     * Returns the dataset sent by a client for a server dataset : unchanged, outdated, modified, conflicting and new
+     * entries, in random proportions.
+     */
+    static Map<String, SyncData> clientDataset(Random random, Map<String, SyncData> serverDataset, int newEntries) {
+        var data = new HashMap<String, SyncData>();
+        serverDataset.forEach((id, serverSyncData) -> {
+            var serverUpdateTime = serverSyncData.getServerUpdateTime();
+            switch (random.nextInt(5)) {
+                case 0 -> data.put(id, copy(serverSyncData));
+                // the client didn't receive the last server change
+                case 1 -> data.put(id, syncData(serverUpdateTime - 1, serverUpdateTime - 1, randomStatus(random), false));
+                // modified by the client only
+                case 2 -> data.put(id, syncData(serverUpdateTime + 10, serverUpdateTime, randomStatus(random), true));
+                // modified by the client and on the server since its last sync
+                case 3 -> data.put(id, syncData(serverUpdateTime + 10, serverUpdateTime - 1, randomStatus(random), true));
+                // not known by the client anymore
+                default -> {
+                }
+            }
+        });
+        for (int i = 0; i < newEntries; i++) {
+            // created by the client, or stored by a server before but unknown by this one
+            var serverUpdateTime = random.nextInt(4) == 0 ? BASE_TIME - 1 - random.nextInt(1_000) : 0;
+            data.put("new-" + i, syncData(BASE_TIME + random.nextInt(1_000), serverUpdateTime, randomStatus(random), random.nextBoolean()));
+        }
+        return data;
+    }
+
+    /**
+     * Returns a deep copy of a dataset since the merge modifies the entries sent by the client.
+     */
+    static Map<String, SyncData> copy(Map<String, SyncData> data) {
+        var copy = new HashMap<String, SyncData>(data.size() * 2);
+        data.forEach((id, syncData) -> copy.put(id, copy(syncData)));
+        return copy;
+    }
+
+    static SyncData copy(SyncData syncData) {
+        return syncData(syncData.getLocalUpdateTime(), syncData.getServerUpdateTime(), syncData.getStatus(), syncData.isDirty());
+    }
+
+    /**
+     * Check that two merged datasets have the same entries with the same values.
+     */
+    static void assertSameDataset(Map<String, SyncData> expected, Map<String, SyncData> actual, String message) {
+        assertEquals(expected.keySet(), actual.keySet(), message);
+        expected.forEach((id, expectedSyncData) -> {
+            var syncData = actual.get(id);
+            assertNotNull(syncData, message + ' ' + id);
+            assertEquals(expectedSyncData.getStatus(), syncData.getStatus(), message + ' ' + id);
+            assertEquals(expectedSyncData.getServerUpdateTime(), syncData.getServerUpdateTime(), message + ' ' + id);
+            assertEquals(expectedSyncData.getLocalUpdateTime(), syncData.getLocalUpdateTime(), message + ' ' + id);
+            assertEquals(expectedSyncData.isDirty(), syncData.isDirty(), message + ' ' + id);
+        });
+    }
+
+    /**
+     * Check that two merges applied the same conflict rules.
+     */
+    static void assertSameStats(MergeStats expected, MergeStats actual, String message) {
+        for (var branch : MergeBranch.values()) {
+            assertEquals(expected.get(branch), actual.get(branch), message + ' ' + branch);
+        }
+    }
+
+    private static Status randomStatus(Random random) {
+        return STATUSES[random.nextInt(STATUSES.length)];
+    }
+
+    private static String id(int i) {
+        return "roadwork-" + i;
+    }
+
+    private static SyncData syncData(long localUpdateTime, long serverUpdateTime, Status status, boolean dirty) {
+        var syncData = new SyncData();
+        syncData.setLocalUpdateTime(localUpdateTime);
+        syncData.setServerUpdateTime(serverUpdateTime);
+        syncData.setStatus(status);
+        syncData.setDirty(dirty);
+        return syncData;
+    }
+}
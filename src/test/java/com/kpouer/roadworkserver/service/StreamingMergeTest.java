@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.kpouer.roadwork.model.sync.SyncData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.kpouer.roadworkserver.service.RandomDatasets.assertSameDataset;
+import static com.kpouer.roadworkserver.service.RandomDatasets.assertSameStats;
+
+/**
+ * The streaming merge of <code>POST /setData</code> must give the same result as the merge of the parsed dataset.
+ * The datasets are random but generated from a fixed seed, the seed of a failing case is in the assertion message.
+ *
+ * @author Matthieu Casanova
+ */
+class StreamingMergeTest {
+    private static final long SEED = 42;
+    private static final int CASES = 40;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // same reader as the server
+    private final ObjectReader syncDataReader = objectMapper.readerFor(SyncData.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @Test
+    void streamingMergeEqualsMerge() throws IOException {
+        var random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            var seed = random.nextLong();
+            var caseRandom = new Random(seed);
+            var serverDataset = RandomDatasets.serverDataset(caseRandom, caseRandom.nextInt(5_000));
+            var clientDataset = RandomDatasets.clientDataset(caseRandom, serverDataset, caseRandom.nextInt(500));
+            var body = objectMapper.writeValueAsBytes(clientDataset);
+            var serverUpdateTime = RandomDatasets.BASE_TIME + 2_000_000;
+            var message = "seed " + seed;
+
+            var stats = new MergeStats();
+            var merged = DataService.merge(serverDataset, RandomDatasets.copy(clientDataset), serverUpdateTime, stats);
+            var streamingStats = new MergeStats();
+            // parsed from a stream like the request body
+            try (var parser = syncDataReader.createParser(new ByteArrayInputStream(body))) {
+                var streamingMerged = DataService.merge(serverDataset, parser, syncDataReader, serverUpdateTime, streamingStats);
+                assertSameDataset(merged, streamingMerged, message);
+            }
+            assertSameStats(stats, streamingStats, message);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 Matthieu Casanova
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kpouer.roadworkserver.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Closing the group commit while files are committed must complete every commit, either renamed or failed.
+ *
+ * @author Matthieu Casanova
+ */
+class GroupCommitTest {
+    private static final int THREADS = 16;
+    private static final int FILES_PER_THREAD = 50;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void closeCompletesEveryCommit() throws Exception {
+        var groupCommit = new GroupCommit(Duration.ofMillis(1));
+        try (var executor = Executors.newFixedThreadPool(THREADS)) {
+            var start = new CountDownLatch(1);
+            var futures = new ArrayList<Future<?>>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                var threadId = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < FILES_PER_THREAD; i++) {
+                        var target = directory.resolve("file-" + threadId + '-' + i);
+                        var temporaryFile = Files.writeString(directory.resolve(target.getFileName() + ".tmp"), "data");
+                        groupCommit.commit(temporaryFile, target);
+                        assertTrue(Files.exists(target));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            groupCommit.close();
+            for (var future : futures) {
+                try {
+                    // a commit that is never completed would block here
+                    future.get(1, TimeUnit.MINUTES);
+                } catch (ExecutionException e) {
+                    assertInstanceOf(IOException.class, e.getCause());
+                }
+            }
+        }
+    }
+}